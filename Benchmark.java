@@ -0,0 +1,244 @@
+package lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Runs the programs of the benchmark corpus a number of times each, and compares the median wall
+ * time and allocation against a checked in baseline. Anything slower or hungrier than the baseline
+ * by more than the threshold is reported as a regression, and makes the exit code 1.
+ *
+ * Baselines only mean something on the machine they were recorded on, so record a fresh one
+ * with --write-baseline before comparing a change.
+ */
+public class Benchmark {
+  private static final String USAGE =
+      "Usage: jlox-benchmark [--runs=N] [--warmup=N] [--threshold=PERCENT]\n" +
+      "                      [--baseline=PATH] [--write-baseline] [--compile] [program.lox ...]";
+
+  // * Runs the programs fully compiled, see Interpreter.setCompileAll
+  private static boolean compileAll = false;
+
+  private static final Pattern ENTRY = Pattern.compile("\"(\\w+)\"\\s*:\\s*\\{([^}]*)\\}");
+  private static final Pattern FIELD = Pattern.compile("\"(\\w+)\"\\s*:\\s*([-+0-9.eE]+)");
+
+  /*
+   * Medians of the measured runs of one program.
+   */
+  private static class Result {
+    final double millis;
+    final long allocatedBytes;
+
+    Result(double millis, long allocatedBytes) {
+      this.millis = millis;
+      this.allocatedBytes = allocatedBytes;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int runs = 5;
+    int warmup = 1;
+    double threshold = 10;
+    Path baseline = Paths.get("benchmark", "baseline.json");
+    boolean writeBaseline = false;
+    List<Path> programs = new ArrayList<>();
+
+    for (String arg : args) {
+      if (arg.startsWith("--runs=")) {
+        runs = Integer.parseInt(arg.substring("--runs=".length()));
+      } else if (arg.startsWith("--warmup=")) {
+        warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+      } else if (arg.startsWith("--threshold=")) {
+        threshold = Double.parseDouble(arg.substring("--threshold=".length()));
+      } else if (arg.startsWith("--baseline=")) {
+        baseline = Paths.get(arg.substring("--baseline=".length()));
+      } else if (arg.equals("--compile")) {
+        compileAll = true;
+      } else if (arg.equals("--write-baseline")) {
+        writeBaseline = true;
+      } else if (arg.startsWith("--")) {
+        usage();
+      } else {
+        programs.add(Paths.get(arg));
+      }
+    }
+    if (runs < 1 || warmup < 0) usage();
+
+    // * By default run the whole corpus next to the baseline
+    if (programs.isEmpty()) {
+      try (DirectoryStream<Path> corpus = Files.newDirectoryStream(baseline.toAbsolutePath().getParent(), "*.lox")) {
+        corpus.forEach(programs::add);
+      }
+      programs.sort(null);
+    }
+
+    Map<String, Result> results = new LinkedHashMap<>();
+    for (Path program : programs) {
+      String name = program.getFileName().toString().replaceFirst("\\.lox$", "");
+      results.put(name, measure(program, runs, warmup));
+    }
+
+    if (writeBaseline) {
+      Files.write(baseline, toJson(results).getBytes(StandardCharsets.UTF_8));
+      report(results, new LinkedHashMap<>(), threshold);
+      System.out.println("Wrote " + baseline + ".");
+      return;
+    }
+
+    Map<String, Result> expected = Files.exists(baseline)
+        ? fromJson(new String(Files.readAllBytes(baseline), StandardCharsets.UTF_8))
+        : new LinkedHashMap<>();
+    if (report(results, expected, threshold)) {
+      System.exit(1);
+    }
+  }
+
+  private static void usage() {
+    System.out.println(USAGE);
+    System.exit(64);
+  }
+
+  /**
+   * * Runs a program warmup + runs times on fresh interpreters, with its output discarded,
+   * * and keeps the medians of the measured runs.
+   * @param program
+   * @param runs
+   * @param warmup
+   * @return Result
+   */
+  private static Result measure(Path program, int runs, int warmup) throws IOException {
+    String source = new String(Files.readAllBytes(program), StandardCharsets.UTF_8);
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+
+    double[] millis = new double[runs];
+    long[] allocated = new long[runs];
+    PrintStream out = System.out;
+    try {
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+      for (int i = -warmup; i < runs; i++) {
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        execute(program, source);
+        long elapsed = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+        if (i >= 0) {
+          millis[i] = elapsed / 1e6;
+          allocated[i] = bytes;
+        }
+      }
+    } finally {
+      System.setOut(out);
+    }
+
+    Arrays.sort(millis);
+    Arrays.sort(allocated);
+    return new Result(millis[runs / 2], allocated[runs / 2]);
+  }
+
+  private static void execute(Path program, String source) {
+    Interpreter interpreter = new Interpreter();
+    interpreter.setCompileAll(compileAll);
+    List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+    if (!Lox.hadError) {
+      new Resolver(interpreter).resolve(statements);
+    }
+    if (!Lox.hadError) {
+      interpreter.interpret(statements);
+    }
+
+    if (Lox.hadError || Lox.hadRuntimeError) {
+      throw new IllegalStateException("Benchmark " + program + " failed.");
+    }
+  }
+
+  /**
+   * * Prints a row per program and says whether any of them regressed.
+   * @param results
+   * @param expected baseline results, programs missing from it are only printed
+   * @param threshold
+   * @return boolean whether there was a regression
+   */
+  private static boolean report(Map<String, Result> results, Map<String, Result> expected, double threshold) {
+    boolean regressed = false;
+    System.out.println(String.format("%-18s %10s %9s %12s %9s", "benchmark", "ms", "change", "allocated", "change"));
+    for (Map.Entry<String, Result> entry : results.entrySet()) {
+      Result result = entry.getValue();
+      Result base = expected.get(entry.getKey());
+
+      String timeChange = "";
+      String allocationChange = "";
+      String verdict = "";
+      if (base != null) {
+        double time = change(result.millis, base.millis);
+        double allocation = change(result.allocatedBytes, base.allocatedBytes);
+        timeChange = String.format("%+.1f%%", time);
+        allocationChange = String.format("%+.1f%%", allocation);
+        if (time > threshold || allocation > threshold) {
+          verdict = "  REGRESSION";
+          regressed = true;
+        }
+      }
+
+      System.out.println(String.format("%-18s %10.1f %9s %10.1fMB %9s%s", entry.getKey(),
+          result.millis, timeChange, result.allocatedBytes / 1e6, allocationChange, verdict));
+    }
+    return regressed;
+  }
+
+  private static double change(double current, double base) {
+    if (base == 0) return 0;
+    return (current - base) / base * 100;
+  }
+
+  private static String toJson(Map<String, Result> results) {
+    StringBuilder json = new StringBuilder("{\n");
+    int remaining = results.size();
+    for (Map.Entry<String, Result> entry : results.entrySet()) {
+      Result result = entry.getValue();
+      json.append(String.format(Locale.ROOT, "  \"%s\": { \"millis\": %.1f, \"allocatedBytes\": %d }",
+          entry.getKey(), result.millis, result.allocatedBytes));
+      json.append(--remaining > 0 ? ",\n" : "\n");
+    }
+    return json.append("}\n").toString();
+  }
+
+  /*
+   * Reads back what toJson wrote. Only that flat shape is understood.
+   */
+  private static Map<String, Result> fromJson(String json) {
+    Map<String, Result> results = new LinkedHashMap<>();
+    Matcher entry = ENTRY.matcher(json);
+    while (entry.find()) {
+      double millis = 0;
+      long allocatedBytes = 0;
+      Matcher field = FIELD.matcher(entry.group(2));
+      while (field.find()) {
+        if (field.group(1).equals("millis")) {
+          millis = Double.parseDouble(field.group(2));
+        } else if (field.group(1).equals("allocatedBytes")) {
+          allocatedBytes = Long.parseLong(field.group(2));
+        }
+      }
+      results.put(entry.group(1), new Result(millis, allocatedBytes));
+    }
+    return results;
+  }
+}
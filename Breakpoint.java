@@ -0,0 +1,41 @@
+package lox;
+
+/*
+ * Stands in for a statement the debugger stops at. The debugger swaps it into the statement's
+ * place in its block when the breakpoint is set and swaps the statement back when it's cleared,
+ * so code without breakpoints runs exactly as it would with no debugger attached.
+ *
+ * Every visitor but the interpreter and the compiler sees straight through it to the statement.
+ */
+final class Breakpoint extends Stmt {
+  final Stmt statement;
+  final int line;
+  private final Debugger debugger;
+  // * Cleared breakpoints can linger in compiled code until it's recompiled; they do nothing
+  volatile boolean active = true;
+
+  Breakpoint(Debugger debugger, Stmt statement, int line) {
+    this.debugger = debugger;
+    this.statement = statement;
+    this.line = line;
+  }
+
+  /**
+   * * Pauses in the debugger, if this breakpoint is still set.
+   * @param environment the scope the statement is about to run in
+   */
+  void hit(Environment environment) {
+    if (active) debugger.hit(this, environment);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  <R> R accept(Visitor<R> visitor) {
+    if (visitor instanceof Interpreter) {
+      hit(((Interpreter) visitor).currentEnvironment());
+    } else if (visitor instanceof Compiler) {
+      return (R) ((Compiler) visitor).breakpoint(this);
+    }
+    return statement.accept(visitor);
+  }
+}
@@ -0,0 +1,52 @@
+package lox;
+
+/*
+ * Limits on a single run of an untrusted script: an amount of fuel, charged once for every
+ * call and every loop iteration, and a wall-clock deadline. Reading the clock costs far more
+ * than a loop iteration, so the deadline (and cancellation from another thread) is only
+ * looked at once every CLOCK_INTERVAL charges.
+ */
+class Budget {
+  private static final int CLOCK_INTERVAL = 1024;
+
+  private long fuel;
+  private final long deadline;
+  private int untilClock = CLOCK_INTERVAL;
+  private volatile boolean cancelled = false;
+
+  /**
+   * * Either limit can be switched off by passing 0.
+   * @param fuel
+   * @param timeoutMillis
+   */
+  Budget(long fuel, long timeoutMillis) {
+    this.fuel = fuel > 0 ? fuel : Long.MAX_VALUE;
+    this.deadline = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1_000_000 : 0;
+  }
+
+  /**
+   * * Charges one unit of fuel for work done at the given token.
+   * @param token
+   */
+  void charge(Token token) {
+    if (--fuel < 0) {
+      throw new RuntimeError(token, "Execution budget exhausted.");
+    }
+    if (--untilClock > 0) return;
+
+    untilClock = CLOCK_INTERVAL;
+    if (cancelled) {
+      throw new RuntimeError(token, "Execution cancelled.");
+    }
+    if (deadline != 0 && System.nanoTime() - deadline > 0) {
+      throw new RuntimeError(token, "Execution time limit exceeded.");
+    }
+  }
+
+  /*
+   * Asks the running script to stop at its next clock check. Safe to call from any thread.
+   */
+  void cancel() {
+    cancelled = true;
+  }
+}
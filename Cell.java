@@ -0,0 +1,14 @@
+package lox;
+
+/*
+ * A box around a local variable that some closure captures. The scope that declares the
+ * variable and every closure that captured it share the same cell, so an assignment made
+ * through any of them is seen by all of the others.
+ */
+class Cell {
+  Object value;
+
+  Cell(Object value) {
+    this.value = value;
+  }
+}
@@ -0,0 +1,659 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * The hot tier. The resolved body of a hot function is compiled into a tree of small Java
+ * objects, one per node, with every decision the tree-walker makes on each visit taken once up
+ * front: which operator runs, whether a variable is local or global and how many environments
+ * up it lives. Running the tree is plain interface calls that HotSpot can profile and inline.
+ *
+ * Compiled code shares everything else with the interpreter: environments, cells, the
+ * environment pool, Return for unwinding and RuntimeError for failures, so a compiled function
+ * and an interpreted one can call each other freely.
+ */
+class Compiler implements Expr.Visitor<Compiler.Node>, Stmt.Visitor<Compiler.Action> {
+
+  interface Node {
+    Object evaluate(Environment environment);
+  }
+
+  interface Action {
+    void execute(Environment environment);
+  }
+
+  // * Compilation never blocks the script, it happens on this thread
+  private static final ExecutorService background = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "lox-compiler");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Interpreter interpreter;
+
+  Compiler(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  /**
+   * * Compiles a function body off the interpreter thread and publishes it to the profile.
+   * @param interpreter
+   * @param function
+   * @param profile
+   */
+  static void compileInBackground(Interpreter interpreter, Stmt.Function function, FunctionProfile profile) {
+    int version = profile.version();
+    background.execute(() -> profile.publish(new Compiler(interpreter).compile(function.body), version));
+  }
+
+  /**
+   * * Compiles statements that run one after the other in the same environment.
+   * @param statements
+   * @return Action
+   */
+  Action compile(List<Stmt> statements) {
+    Stmt[] compiled = new Stmt[statements.size()];
+    Action[] actions = new Action[compiled.length];
+    for (int i = 0; i < actions.length; i++) {
+      compiled[i] = statements.get(i);
+      actions[i] = statement(compiled[i]);
+    }
+
+    if (interpreter.debugged()) return watched(statements, compiled, actions);
+    if (actions.length == 1) return actions[0];
+    return environment -> {
+      for (Action action : actions) {
+        action.execute(environment);
+      }
+    };
+  }
+
+  /*
+   * With a debugger attached, a statement that was swapped for a breakpoint, or back, since it
+   * was compiled runs in the tree-walker instead, so this frame sees the breakpoints set while
+   * it's running. Code compiled without a debugger doesn't pay for the check.
+   */
+  private Action watched(List<Stmt> statements, Stmt[] compiled, Action[] actions) {
+    return environment -> {
+      for (int i = 0; i < actions.length; i++) {
+        Stmt current = statements.get(i);
+        if (current == compiled[i]) {
+          actions[i].execute(environment);
+        } else {
+          interpreter.executeIn(current, environment);
+        }
+      }
+    };
+  }
+
+  private Node compile(Expr expr) {
+    if (interpreter.isNumeric(expr)) {
+      return compileNumber(expr);
+    }
+    return expr.accept(this);
+  }
+
+  /*
+   * Code for an expression the type checker proved is a number. It stays on primitive doubles
+   * all the way down, with no operand checks, and only boxes if a generic node asks for the value.
+   */
+  interface NumberNode extends Node {
+    double number(Environment environment);
+
+    @Override
+    default Object evaluate(Environment environment) {
+      return number(environment);
+    }
+  }
+
+  private NumberNode compileNumber(Expr expr) {
+    if (expr instanceof Expr.Literal) {
+      double value = (double) ((Expr.Literal) expr).value;
+      return environment -> value;
+    }
+    if (expr instanceof Expr.Grouping) {
+      return compileNumber(((Expr.Grouping) expr).expression);
+    }
+    if (expr instanceof Expr.Variable) {
+      // * Only locals can be typed, so there always is a distance
+      int hops = interpreter.distance(expr);
+      String name = ((Expr.Variable) expr).name.lexeme;
+      return environment -> environment.numberAt(hops, name).value;
+    }
+    if (expr instanceof Expr.Assign) {
+      NumberNode value = compileNumber(((Expr.Assign) expr).value);
+      int hops = interpreter.distance(expr);
+      String name = ((Expr.Assign) expr).name.lexeme;
+      return environment -> {
+        double result = value.number(environment);
+        environment.numberAt(hops, name).value = result;
+        return result;
+      };
+    }
+    if (expr instanceof Expr.Unary) {
+      NumberNode right = compileNumber(((Expr.Unary) expr).right);
+      return environment -> -right.number(environment);
+    }
+
+    Expr.Binary binary = (Expr.Binary) expr;
+    NumberNode left = compileNumber(binary.left);
+    NumberNode right = compileNumber(binary.right);
+    switch (binary.operator.type) {
+      case PLUS:
+        return environment -> left.number(environment) + right.number(environment);
+      case MINUS:
+        return environment -> left.number(environment) - right.number(environment);
+      case STAR:
+        return environment -> left.number(environment) * right.number(environment);
+      case SLASH:
+        return environment -> left.number(environment) / right.number(environment);
+      default:
+        throw new IllegalStateException("Not a numeric operator: " + binary.operator.lexeme);
+    }
+  }
+
+  /*
+   * Comparison of two proven numbers, which can't fail. Equality keeps the semantics of
+   * Double.equals that the generic path has, for NaN and negative zero.
+   */
+  private Node compareNumbers(Expr.Binary expr) {
+    NumberNode left = compileNumber(expr.left);
+    NumberNode right = compileNumber(expr.right);
+    switch (expr.operator.type) {
+      case GREATER:
+        return environment -> left.number(environment) > right.number(environment);
+      case GREATER_EQUAL:
+        return environment -> left.number(environment) >= right.number(environment);
+      case LESS:
+        return environment -> left.number(environment) < right.number(environment);
+      case LESS_EQUAL:
+        return environment -> left.number(environment) <= right.number(environment);
+      case EQUAL_EQUAL:
+        return environment -> Double.compare(left.number(environment), right.number(environment)) == 0;
+      case BANG_EQUAL:
+        return environment -> Double.compare(left.number(environment), right.number(environment)) != 0;
+      default:
+        return null;
+    }
+  }
+
+  /*
+   * A breakpoint compiles to a call into the debugger ahead of its statement.
+   */
+  Action breakpoint(Breakpoint breakpoint) {
+    Action action = breakpoint.statement.accept(this);
+    return environment -> {
+      breakpoint.hit(environment);
+      action.execute(environment);
+    };
+  }
+
+  /**
+   * * Counts which way a condition went, when coverage is collected.
+   * @param node the if or logical operator it decides
+   * @param condition
+   * @return Node
+   */
+  private Node branch(Object node, Node condition) {
+    Coverage coverage = interpreter.coverage();
+    int index = coverage == null ? -1 : coverage.branchIndexOf(node);
+    if (index < 0) return condition;
+    return environment -> {
+      Object value = condition.evaluate(environment);
+      coverage.count(Interpreter.isTruthy(value) ? index : index + 1);
+      return value;
+    };
+  }
+
+  /*
+   * Every compiled statement counts itself, just like Interpreter.execute does.
+   */
+  private Action statement(Stmt stmt) {
+    Action action = stmt.accept(this);
+    Coverage coverage = interpreter.coverage();
+    int index = coverage == null ? -1 : coverage.indexOf(stmt);
+    if (index >= 0) {
+      return environment -> {
+        LoxMetrics.metrics.statementsExecuted.increment();
+        coverage.count(index);
+        action.execute(environment);
+      };
+    }
+    return environment -> {
+      LoxMetrics.metrics.statementsExecuted.increment();
+      action.execute(environment);
+    };
+  }
+
+  @Override
+  public Node visitAssignExpr(Expr.Assign expr) {
+    Node value = compile(expr.value);
+    Token name = expr.name;
+    Integer distance = interpreter.distance(expr);
+
+    if (distance == null) {
+      return new Node() {
+        private Cell cell;
+
+        @Override
+        public Object evaluate(Environment environment) {
+          Object result = value.evaluate(environment);
+          if (cell == null) cell = interpreter.globalCell(expr, name);
+          cell.value = result;
+          return result;
+        }
+      };
+    }
+
+    int hops = distance;
+    return environment -> {
+      Object result = value.evaluate(environment);
+      environment.assignAt(hops, name, result);
+      return result;
+    };
+  }
+
+  /*
+   * The operator switch runs here, once, instead of on every evaluation.
+   */
+  @Override
+  public Node visitBinaryExpr(Expr.Binary expr) {
+    if (interpreter.isNumeric(expr.left) && interpreter.isNumeric(expr.right)) {
+      Node comparison = compareNumbers(expr);
+      if (comparison != null) return comparison;
+    }
+
+    Node left = compile(expr.left);
+    Node right = compile(expr.right);
+    Token operator = expr.operator;
+
+    switch (operator.type) {
+      case GREATER:
+        return environment -> {
+          Object a = left.evaluate(environment);
+          Object b = right.evaluate(environment);
+          Interpreter.checkNumberOperands(operator, a, b);
+          return (double) a > (double) b;
+        };
+      case GREATER_EQUAL:
+        return environment -> {
+          Object a = left.evaluate(environment);
+          Object b = right.evaluate(environment);
+          Interpreter.checkNumberOperands(operator, a, b);
+          return (double) a >= (double) b;
+        };
+      case LESS:
+        return environment -> {
+          Object a = left.evaluate(environment);
+          Object b = right.evaluate(environment);
+          Interpreter.checkNumberOperands(operator, a, b);
+          return (double) a < (double) b;
+        };
+      case LESS_EQUAL:
+        return environment -> {
+          Object a = left.evaluate(environment);
+          Object b = right.evaluate(environment);
+          Interpreter.checkNumberOperands(operator, a, b);
+          return (double) a <= (double) b;
+        };
+      case BANG_EQUAL:
+        return environment -> !Interpreter.isEqual(left.evaluate(environment), right.evaluate(environment));
+      case EQUAL_EQUAL:
+        return environment -> Interpreter.isEqual(left.evaluate(environment), right.evaluate(environment));
+      case MINUS:
+        return environment -> {
+          Object a = left.evaluate(environment);
+          Object b = right.evaluate(environment);
+          Interpreter.checkNumberOperands(operator, a, b);
+          return (double) a - (double) b;
+        };
+      case PLUS:
+        return environment -> interpreter.add(operator, left.evaluate(environment), right.evaluate(environment));
+      case SLASH:
+        return environment -> {
+          Object a = left.evaluate(environment);
+          Object b = right.evaluate(environment);
+          Interpreter.checkNumberOperands(operator, a, b);
+          return (double) a / (double) b;
+        };
+      case STAR:
+        return environment -> {
+          Object a = left.evaluate(environment);
+          Object b = right.evaluate(environment);
+          Interpreter.checkNumberOperands(operator, a, b);
+          return (double) a * (double) b;
+        };
+      default:
+        // * Unreachable
+        return environment -> null;
+    }
+  }
+
+  @Override
+  public Node visitCallExpr(Expr.Call expr) {
+    Node callee = compile(expr.callee);
+    Node[] arguments = new Node[expr.arguments.size()];
+    for (int i = 0; i < arguments.length; i++) {
+      arguments[i] = compile(expr.arguments.get(i));
+    }
+    Token paren = expr.paren;
+
+    return environment -> {
+      Object function = callee.evaluate(environment);
+      List<Object> values = new ArrayList<>(arguments.length);
+      for (Node argument : arguments) {
+        values.add(argument.evaluate(environment));
+      }
+      return interpreter.call(function, values, paren);
+    };
+  }
+
+  @Override
+  public Node visitGetExpr(Expr.Get expr) {
+    Node object = compile(expr.object);
+    Token name = expr.name;
+
+    return environment -> {
+      Object instance = object.evaluate(environment);
+      if (instance instanceof LoxInstance) {
+        return ((LoxInstance) instance).get(name);
+      }
+      throw new RuntimeError(name, "Only instances have properties.");
+    };
+  }
+
+  @Override
+  public Node visitGroupingExpr(Expr.Grouping expr) {
+    // * Parentheses only matter to the parser
+    return compile(expr.expression);
+  }
+
+  @Override
+  public Node visitLiteralExpr(Expr.Literal expr) {
+    Object value = expr.value;
+    return environment -> value;
+  }
+
+  @Override
+  public Node visitLogicalExpr(Expr.Logical expr) {
+    Node left = branch(expr, compile(expr.left));
+    Node right = compile(expr.right);
+
+    if (expr.operator.type == TokenType.OR) {
+      return environment -> {
+        Object value = left.evaluate(environment);
+        if (Interpreter.isTruthy(value)) return value;
+        return right.evaluate(environment);
+      };
+    }
+
+    return environment -> {
+      Object value = left.evaluate(environment);
+      if (!Interpreter.isTruthy(value)) return value;
+      return right.evaluate(environment);
+    };
+  }
+
+  @Override
+  public Node visitSetExpr(Expr.Set expr) {
+    Node object = compile(expr.object);
+    Node value = compile(expr.value);
+    Token name = expr.name;
+
+    return environment -> {
+      Object instance = object.evaluate(environment);
+      if (!(instance instanceof LoxInstance)) {
+        throw new RuntimeError(name, "Only instances have fields.");
+      }
+      Object result = value.evaluate(environment);
+      if (((LoxInstance) instance).set(name, result)) interpreter.allocate(MemoryMeter.ENTRY);
+      return result;
+    };
+  }
+
+  @Override
+  public Node visitSuperExpr(Expr.Super expr) {
+    int hops = interpreter.distance(expr);
+    int receiverHops = interpreter.receiver(expr);
+    Token method = expr.method;
+
+    return environment -> {
+      LoxClass superclass = (LoxClass) environment.getAt(hops, "super");
+      LoxInstance object = (LoxInstance) environment.getAt(receiverHops, "this");
+      return superclass.bindSuper(object, method);
+    };
+  }
+
+  @Override
+  public Node visitThisExpr(Expr.This expr) {
+    return variable(expr, expr.keyword);
+  }
+
+  @Override
+  public Node visitUnaryExpr(Expr.Unary expr) {
+    Node right = compile(expr.right);
+    Token operator = expr.operator;
+
+    if (operator.type == TokenType.BANG) {
+      return environment -> !Interpreter.isTruthy(right.evaluate(environment));
+    }
+
+    return environment -> {
+      Object value = right.evaluate(environment);
+      Interpreter.checkNumberOperand(operator, value);
+      return -(double) value;
+    };
+  }
+
+  @Override
+  public Node visitVariableExpr(Expr.Variable expr) {
+    return variable(expr, expr.name);
+  }
+
+  private Node variable(Expr expr, Token name) {
+    Integer distance = interpreter.distance(expr);
+    if (distance == null) {
+      // * Globals can't be undefined again, so the cell is kept once the name is defined
+      return new Node() {
+        private Cell cell;
+
+        @Override
+        public Object evaluate(Environment environment) {
+          if (cell == null) cell = interpreter.globalCell(expr, name);
+          return cell.value;
+        }
+      };
+    }
+
+    int hops = distance;
+    String lexeme = name.lexeme;
+    return environment -> environment.getAt(hops, lexeme);
+  }
+
+  @Override
+  public Action visitBlockStmt(Stmt.Block stmt) {
+    Action body = compile(stmt.statements);
+
+    if (!interpreter.isRecyclable(stmt)) {
+      return environment -> {
+        Environment block = new Environment(environment);
+        interpreter.enter(block);
+        try {
+          body.execute(block);
+        } finally {
+          interpreter.leave();
+        }
+      };
+    }
+
+    return environment -> {
+      Environment block = interpreter.acquireEnvironment(environment);
+      interpreter.enter(block);
+      try {
+        body.execute(block);
+      } finally {
+        interpreter.leave();
+        interpreter.releaseEnvironment(block);
+      }
+    };
+  }
+
+  @Override
+  public Action visitClassStmt(Stmt.Class stmt) {
+    if (stmt.superclass == null) {
+      return environment -> interpreter.declareClass(stmt, null, environment);
+    }
+
+    Node superclass = compile(stmt.superclass);
+    return environment -> interpreter.declareClass(stmt, superclass.evaluate(environment), environment);
+  }
+
+  @Override
+  public Action visitExpressionStmt(Stmt.Expression stmt) {
+    Node expression = compile(stmt.expression);
+    return environment -> expression.evaluate(environment);
+  }
+
+  @Override
+  public Action visitFunctionStmt(Stmt.Function stmt) {
+    return environment -> interpreter.declareFunction(stmt, environment);
+  }
+
+  @Override
+  public Action visitIfStmt(Stmt.If stmt) {
+    Node condition = branch(stmt, compile(stmt.condition));
+    Action thenBranch = statement(stmt.thenBranch);
+
+    if (stmt.elseBranch == null) {
+      return environment -> {
+        if (Interpreter.isTruthy(condition.evaluate(environment))) {
+          thenBranch.execute(environment);
+        }
+      };
+    }
+
+    Action elseBranch = statement(stmt.elseBranch);
+    return environment -> {
+      if (Interpreter.isTruthy(condition.evaluate(environment))) {
+        thenBranch.execute(environment);
+      } else {
+        elseBranch.execute(environment);
+      }
+    };
+  }
+
+  @Override
+  public Action visitPrintStmt(Stmt.Print stmt) {
+    Node expression = compile(stmt.expression);
+    return environment -> System.out.println(Interpreter.stringify(expression.evaluate(environment)));
+  }
+
+  @Override
+  public Action visitYieldStmt(Stmt.Yield stmt) {
+    // * Generators always run in the tree-walker, see LoxGenerator
+    throw new IllegalStateException("Generators are never compiled.");
+  }
+
+  @Override
+  public Action visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value == null) {
+      return environment -> {
+        throw new Return(null);
+      };
+    }
+
+    Node value = compile(stmt.value);
+    return environment -> {
+      throw new Return(value.evaluate(environment));
+    };
+  }
+
+  @Override
+  public Action visitVarStmt(Stmt.Var stmt) {
+    Token name = stmt.name;
+    if (stmt.initializer == null) {
+      return environment -> interpreter.define(environment, name, null);
+    }
+
+    Node initializer = compile(stmt.initializer);
+    return environment -> interpreter.define(environment, name, initializer.evaluate(environment));
+  }
+
+  @Override
+  public Action visitWhileStmt(Stmt.While stmt) {
+    Node condition = compile(stmt.condtion);
+    Action body = statement(stmt.body);
+    Token keyword = stmt.keyword;
+    Action loop = environment -> {
+      while (Interpreter.isTruthy(condition.evaluate(environment))) {
+        body.execute(environment);
+        interpreter.charge(keyword);
+      }
+    };
+
+    CountedLoop counted = interpreter.countedLoop(stmt);
+    if (counted == null) return loop;
+    return countedLoop(counted, loop);
+  }
+
+  /*
+   * Same as Interpreter.executeCountedLoop, falling back to the generic loop when the counter
+   * doesn't start out as a number.
+   */
+  private Action countedLoop(CountedLoop counted, Action loop) {
+    Node limit = compile(counted.limit);
+    Action body = compile(counted.body);
+    Token keyword = counted.keyword;
+    Token name = counted.name;
+    Token operator = counted.operator;
+    double step = counted.step;
+    boolean materialize = counted.materialize || interpreter.debugged();
+    // * A typed counter is written straight into its cell, without boxing
+    boolean typed = interpreter.isNumber(name);
+    // * The block and increment count as run on every iteration, as in the plain loop
+    Coverage coverage = interpreter.coverage();
+    int blockIndex = coverage == null ? -1 : coverage.indexOf(counted.block);
+    int incrementIndex = coverage == null ? -1 : coverage.indexOf(counted.increment);
+
+    return environment -> {
+      Object start = environment.getAt(0, name.lexeme);
+      if (!(start instanceof Double)) {
+        loop.execute(environment);
+        return;
+      }
+
+      double index = (double) start;
+      NumberCell cell = typed ? environment.numberAt(0, name.lexeme) : null;
+      Environment iteration = interpreter.acquireEnvironment(environment);
+      interpreter.enter(iteration);
+      try {
+        while (true) {
+          if (cell != null) {
+            cell.value = index;
+          } else if (materialize) {
+            environment.assignAt(0, name, index);
+          }
+          Object bound = limit.evaluate(environment);
+          if (!(bound instanceof Double)) {
+            throw new RuntimeError(operator, "Operands must be numbers.");
+          }
+          if (!counted.test(index, (double) bound)) break;
+
+          LoxMetrics.metrics.statementsExecuted.increment();
+          if (blockIndex >= 0) coverage.count(blockIndex);
+          body.execute(iteration);
+          LoxMetrics.metrics.statementsExecuted.increment();
+          if (incrementIndex >= 0) coverage.count(incrementIndex);
+          index += step;
+          interpreter.charge(keyword);
+        }
+      } finally {
+        interpreter.leave();
+        interpreter.releaseEnvironment(iteration);
+      }
+    };
+  }
+}
@@ -0,0 +1,126 @@
+package lox;
+
+import java.util.List;
+
+/*
+ * The canonical shape a `for` loop desugars into:
+ *
+ *   { var i = start; while (i < limit) { body; i = i + step; } }
+ *
+ * The resolver recognizes it when the body never assigns the induction variable, and the
+ * interpreter then runs it with the counter kept in a Java double instead of going through
+ * the generic comparison, assignment and block visitors on every iteration.
+ */
+class CountedLoop {
+  final Token keyword;
+  final Token name;
+  final Token operator;
+  final Expr limit;
+  final double step;
+  // * A view of the loop's own block, so a breakpoint swapped into it is run here as well
+  final List<Stmt> body;
+  // * The block and increment the loop runs without executing them, which still count as run
+  final Stmt.Block block;
+  final Stmt increment;
+
+  // * Filled in by the resolver while it walks the loop
+  int reads = 0;
+  int writes = 0;
+  // * The counter is only written back to its variable when something other than the loop reads it
+  boolean materialize = false;
+
+  private CountedLoop(Token keyword, Token name, Token operator, Expr limit, double step, Stmt.Block block) {
+    this.keyword = keyword;
+    this.name = name;
+    this.operator = operator;
+    this.limit = limit;
+    this.step = step;
+    this.body = block.statements.subList(0, 1);
+    this.block = block;
+    this.increment = block.statements.get(1);
+  }
+
+  /**
+   * * Returns the counted loop a block stands for, or null if it isn't in the canonical shape.
+   * @param block
+   * @return CountedLoop
+   */
+  static CountedLoop match(Stmt.Block block) {
+    if (block.statements.size() != 2) return null;
+    if (!(block.statements.get(0) instanceof Stmt.Var)) return null;
+    if (!(block.statements.get(1) instanceof Stmt.While)) return null;
+
+    Stmt.Var initializer = (Stmt.Var) block.statements.get(0);
+    Stmt.While loop = (Stmt.While) block.statements.get(1);
+    if (initializer.initializer == null) return null;
+
+    // * i < limit, i <= limit, i > limit or i >= limit
+    if (!(loop.condtion instanceof Expr.Binary)) return null;
+    Expr.Binary condition = (Expr.Binary) loop.condtion;
+    if (!isVariable(condition.left, initializer.name)) return null;
+    switch (condition.operator.type) {
+      case LESS:
+      case LESS_EQUAL:
+      case GREATER:
+      case GREATER_EQUAL:
+        break;
+      default:
+        return null;
+    }
+
+    // * { body; i = i + step; }
+    if (!(loop.body instanceof Stmt.Block)) return null;
+    List<Stmt> statements = ((Stmt.Block) loop.body).statements;
+    if (statements.size() != 2 || !(statements.get(1) instanceof Stmt.Expression)) return null;
+
+    Expr increment = ((Stmt.Expression) statements.get(1)).expression;
+    if (!(increment instanceof Expr.Assign)) return null;
+    Expr.Assign assign = (Expr.Assign) increment;
+    if (!assign.name.lexeme.equals(initializer.name.lexeme)) return null;
+    if (!(assign.value instanceof Expr.Binary)) return null;
+
+    Expr.Binary next = (Expr.Binary) assign.value;
+    if (!isVariable(next.left, initializer.name)) return null;
+    if (!(next.right instanceof Expr.Literal)) return null;
+    Object amount = ((Expr.Literal) next.right).value;
+    if (!(amount instanceof Double)) return null;
+
+    double step;
+    switch (next.operator.type) {
+      case PLUS:
+        step = (double) amount;
+        break;
+      case MINUS:
+        step = -(double) amount;
+        break;
+      default:
+        return null;
+    }
+
+    return new CountedLoop(loop.keyword, initializer.name, condition.operator, condition.right, step,
+        (Stmt.Block) loop.body);
+  }
+
+  /**
+   * * Evaluates the loop condition on the unboxed counter.
+   * @param index
+   * @param limit
+   * @return boolean
+   */
+  boolean test(double index, double limit) {
+    switch (operator.type) {
+      case LESS:
+        return index < limit;
+      case LESS_EQUAL:
+        return index <= limit;
+      case GREATER:
+        return index > limit;
+      default:
+        return index >= limit;
+    }
+  }
+
+  private static boolean isVariable(Expr expr, Token name) {
+    return expr instanceof Expr.Variable && ((Expr.Variable) expr).name.lexeme.equals(name.lexeme);
+  }
+}
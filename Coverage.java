@@ -0,0 +1,161 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Statement and branch coverage of a run, behind --coverage. The resolver gives every statement
+ * and every if and logical operator a dense index, so counting an execution is an increment of
+ * one slot of a flat array. An if or logical operator owns two slots, the times its condition was
+ * truthy and the times it was falsy.
+ *
+ * The compiled tier looks the index up once when it compiles a statement, so hot code pays only
+ * the increment. Only the interpreter thread runs a script, which is why the counters are plain
+ * longs.
+ *
+ * Functions that are never called count as well: coverage turns off deferred bodies, so every
+ * body is resolved, and reported, up front.
+ */
+class Coverage {
+  // * Filled in by the parser, the line every statement starts on
+  private final Map<Stmt, Integer> lines = new HashMap<>();
+  private final Map<Stmt, Integer> statements = new ConcurrentHashMap<>();
+  private final Map<Object, Integer> branches = new ConcurrentHashMap<>();
+  // * The line of every index; resolvers can run in parallel, so it's guarded by this
+  private final List<Integer> lineOf = new ArrayList<>();
+  private long[] counts = new long[0];
+
+  Map<Stmt, Integer> lines() {
+    return lines;
+  }
+
+  /*
+   * Gives the statement an index, if the parser knows its line.
+   */
+  void statement(Stmt stmt) {
+    Integer line = lines.get(stmt);
+    if (line != null && !statements.containsKey(stmt)) {
+      statements.put(stmt, assign(line, 1));
+    }
+  }
+
+  /*
+   * Gives a pair of indices to an if or a logical operator.
+   */
+  void branch(Object node, int line) {
+    if (!branches.containsKey(node)) {
+      branches.put(node, assign(line, 2));
+    }
+  }
+
+  void branch(Stmt.If stmt) {
+    Integer line = lines.get(stmt);
+    if (line != null) branch(stmt, line);
+  }
+
+  private synchronized int assign(int line, int width) {
+    int index = lineOf.size();
+    for (int i = 0; i < width; i++) {
+      lineOf.add(line);
+    }
+    return index;
+  }
+
+  /*
+   * Makes room for every index assigned so far. Called before each run.
+   */
+  synchronized void start() {
+    if (counts.length < lineOf.size()) {
+      counts = Arrays.copyOf(counts, lineOf.size());
+    }
+  }
+
+  /**
+   * * The index of a statement, for the compiler to count it with.
+   * @param stmt
+   * @return the index, or -1 when the statement isn't counted
+   */
+  int indexOf(Stmt stmt) {
+    Integer index = statements.get(stmt);
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * * The first of the pair of indices of a branch, for the compiler to count it with.
+   * @param node
+   * @return the index, or -1 when the branch isn't counted
+   */
+  int branchIndexOf(Object node) {
+    Integer index = branches.get(node);
+    return index == null ? -1 : index;
+  }
+
+  void count(int index) {
+    counts[index]++;
+  }
+
+  void count(Stmt stmt) {
+    Integer index = statements.get(stmt);
+    if (index != null) counts[index]++;
+  }
+
+  void count(Object node, boolean truthy) {
+    Integer index = branches.get(node);
+    if (index != null) counts[truthy ? index : index + 1]++;
+  }
+
+  /**
+   * * Writes the counts as an lcov trace file. A line's count is that of the statement on it
+   * * that ran the most.
+   * @param out
+   * @param source the path of the script
+   */
+  synchronized void write(Writer out, String source) throws IOException {
+    Map<Integer, Long> hits = new TreeMap<>();
+    for (int index : statements.values()) {
+      hits.merge(lineOf.get(index), counts[index], Math::max);
+    }
+    Map<Integer, List<Integer>> pairs = new TreeMap<>();
+    for (int index : branches.values()) {
+      pairs.computeIfAbsent(lineOf.get(index), line -> new ArrayList<>()).add(index);
+    }
+
+    PrintWriter writer = new PrintWriter(out);
+    writer.println("TN:");
+    writer.println("SF:" + source);
+    int branchesFound = 0;
+    int branchesHit = 0;
+    for (Map.Entry<Integer, List<Integer>> line : pairs.entrySet()) {
+      List<Integer> indices = line.getValue();
+      indices.sort(null);
+      for (int block = 0; block < indices.size(); block++) {
+        for (int side = 0; side < 2; side++) {
+          long count = counts[indices.get(block) + side];
+          writer.println("BRDA:" + line.getKey() + "," + block + "," + side + "," + count);
+          branchesFound++;
+          if (count > 0) branchesHit++;
+        }
+      }
+    }
+    writer.println("BRF:" + branchesFound);
+    writer.println("BRH:" + branchesHit);
+
+    int linesHit = 0;
+    for (Map.Entry<Integer, Long> line : hits.entrySet()) {
+      writer.println("DA:" + line.getKey() + "," + line.getValue());
+      if (line.getValue() > 0) linesHit++;
+    }
+    writer.println("LF:" + hits.size());
+    writer.println("LH:" + linesHit);
+    writer.println("end_of_record");
+    writer.flush();
+  }
+}
@@ -0,0 +1,162 @@
+package lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The command line front end of the debugger, behind --debug. It reads commands from standard
+ * input before the script starts and whenever it pauses:
+ *
+ *   break N, b N    stop at line N          clear N, d N   remove the breakpoint at line N
+ *   continue, c     run to the next stop    step, s        run to the next statement
+ *   env, e          show the scope chain    print X, p X   show the variable X
+ *   quit, q         remove every breakpoint and run to the end
+ */
+class DebugConsole implements Debugger.Listener {
+  private final BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+  private final String[] source;
+  private Debugger debugger;
+
+  private DebugConsole(String source) {
+    this.source = source.split("\r?\n", -1);
+  }
+
+  /**
+   * * Attaches a debugger to the program and takes commands until the user lets it run.
+   * @param interpreter the interpreter about to run the program
+   * @param program
+   * @param lines the lines the parser recorded
+   * @param source the text of the program, to show the lines it stops at
+   */
+  static void attach(Interpreter interpreter, List<Stmt> program, Map<Stmt, Integer> lines, String source) {
+    DebugConsole console = new DebugConsole(source);
+    console.debugger = new Debugger(interpreter, program, lines, console);
+    System.out.println("Debugging. Type 'help' for the commands, 'continue' to start.");
+    console.prompt(null);
+  }
+
+  @Override
+  public void paused(Debugger debugger, int line, Environment environment) {
+    String text = line >= 1 && line <= source.length ? source[line - 1].trim() : "";
+    System.out.println("Paused at line " + line + ": " + text);
+    prompt(environment);
+  }
+
+  /*
+   * Takes commands until one of them resumes the program. Before the program starts there is no
+   * scope to inspect.
+   */
+  private void prompt(Environment environment) {
+    for (;;) {
+      System.out.print("(debug) ");
+      System.out.flush();
+      String line;
+      try {
+        line = input.readLine();
+      } catch (IOException e) {
+        line = null;
+      }
+      if (line == null) {
+        debugger.detach();
+        return;
+      }
+
+      String[] words = line.trim().split("\\s+");
+      String argument = words.length > 1 ? words[1] : null;
+      switch (words[0]) {
+        case "break":
+        case "b":
+          Integer target = lineNumber(argument);
+          if (target == null) break;
+          if (debugger.setBreakpoint(target)) {
+            System.out.println("Breakpoint at line " + target + ".");
+          } else {
+            System.out.println("No statement to stop at on line " + target + ".");
+          }
+          break;
+        case "clear":
+        case "d":
+          Integer cleared = lineNumber(argument);
+          if (cleared != null) debugger.clearBreakpoint(cleared);
+          break;
+        case "continue":
+        case "c":
+          return;
+        case "step":
+        case "s":
+          debugger.step();
+          return;
+        case "env":
+        case "e":
+          if (environment == null) {
+            System.out.println("Not running yet.");
+          } else {
+            printScopes(environment);
+          }
+          break;
+        case "print":
+        case "p":
+          if (argument == null) {
+            System.out.println("Expect a variable name.");
+          } else if (environment == null) {
+            System.out.println("Not running yet.");
+          } else {
+            printVariable(environment, argument);
+          }
+          break;
+        case "quit":
+        case "q":
+          debugger.detach();
+          return;
+        case "":
+          break;
+        default:
+          System.out.println("Commands: break N, clear N, continue, step, env, print NAME, quit.");
+      }
+    }
+  }
+
+  private static Integer lineNumber(String argument) {
+    try {
+      if (argument != null) return Integer.parseInt(argument);
+    } catch (NumberFormatException e) {
+      // * Reported below
+    }
+    System.out.println("Expect a line number.");
+    return null;
+  }
+
+  /*
+   * Lists every scope from the innermost out. The natives are left out of the globals.
+   */
+  private static void printScopes(Environment environment) {
+    int depth = 0;
+    for (Environment scope = environment; scope != null; scope = scope.enclosing) {
+      boolean global = scope.enclosing == null;
+      System.out.println(global ? "globals:" : "scope " + depth + ":");
+      for (Map.Entry<String, Object> variable : scope.variables().entrySet()) {
+        if (global && isNative(variable.getValue())) continue;
+        System.out.println("  " + variable.getKey() + " = " + Interpreter.stringify(variable.getValue()));
+      }
+      depth++;
+    }
+  }
+
+  private static void printVariable(Environment environment, String name) {
+    for (Environment scope = environment; scope != null; scope = scope.enclosing) {
+      Map<String, Object> variables = scope.variables();
+      if (variables.containsKey(name)) {
+        System.out.println(name + " = " + Interpreter.stringify(variables.get(name)));
+        return;
+      }
+    }
+    System.out.println("Undefined variable '" + name + "'.");
+  }
+
+  private static boolean isNative(Object value) {
+    return value instanceof LoxCallable && !(value instanceof LoxFunction) && !(value instanceof LoxClass);
+  }
+}
@@ -0,0 +1,183 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Line breakpoints and single stepping for a running program. Breakpoints are Breakpoint nodes
+ * swapped in for the statements they're set on, so only those statements pay anything; with no
+ * breakpoints set, the program is the same tree it was before the debugger attached.
+ *
+ * Stepping puts a temporary breakpoint on every statement, which is costly but only lasts until
+ * the next statement pauses. A function with a breakpoint in it runs interpreted for as long as
+ * the breakpoint is set, and every other function stays compiled. A compiled frame that is
+ * already running checks each statement before it runs it, so a step or a breakpoint set in
+ * the middle of it still takes effect in that very frame.
+ *
+ * Only statements that sit in a block, a function body or the top level can take a breakpoint.
+ * The program has to be parsed with its lines recorded and without deferred bodies.
+ */
+class Debugger {
+  /*
+   * Told whenever the program pauses. The program stays paused until it returns.
+   */
+  interface Listener {
+    void paused(Debugger debugger, int line, Environment environment);
+  }
+
+  /*
+   * A slot in a statement list, and the function whose body it's in, null at the top level.
+   */
+  private static class Site {
+    final List<Stmt> statements;
+    final int index;
+    final Stmt.Function function;
+
+    Site(List<Stmt> statements, int index, Stmt.Function function) {
+      this.statements = statements;
+      this.index = index;
+      this.function = function;
+    }
+  }
+
+  private final Interpreter interpreter;
+  private final List<Stmt> program;
+  private final Map<Stmt, Integer> lines;
+  private final Listener listener;
+  private final Map<Integer, List<Site>> breakpoints = new HashMap<>();
+  // * The temporary breakpoints of a step
+  private final List<Site> steps = new ArrayList<>();
+
+  Debugger(Interpreter interpreter, List<Stmt> program, Map<Stmt, Integer> lines, Listener listener) {
+    this.interpreter = interpreter;
+    this.program = program;
+    this.lines = lines;
+    this.listener = listener;
+    interpreter.attachDebugger();
+  }
+
+  /**
+   * * Stops before every statement that starts on the line. Where statements nest, only the
+   * * outermost one on the line stops.
+   * @param line
+   * @return whether there is a statement to stop at on the line
+   */
+  boolean setBreakpoint(int line) {
+    if (breakpoints.containsKey(line)) return true;
+
+    List<Site> sites = new ArrayList<>();
+    for (Site site : sites(program, null, new ArrayList<>())) {
+      if (lineOf(site) == line && install(site, line)) {
+        sites.add(site);
+      }
+    }
+    if (sites.isEmpty()) return false;
+    breakpoints.put(line, sites);
+    return true;
+  }
+
+  void clearBreakpoint(int line) {
+    List<Site> sites = breakpoints.remove(line);
+    if (sites == null) return;
+    for (Site site : sites) {
+      uninstall(site);
+    }
+  }
+
+  /*
+   * Clears every breakpoint and lets the program run on undisturbed.
+   */
+  void detach() {
+    for (Integer line : new ArrayList<>(breakpoints.keySet())) {
+      clearBreakpoint(line);
+    }
+    endStep();
+  }
+
+  /*
+   * Pauses again at the next statement to run, wherever it is.
+   */
+  void step() {
+    for (Site site : sites(program, null, new ArrayList<>())) {
+      int line = lineOf(site);
+      if (line >= 0 && install(site, line)) {
+        steps.add(site);
+      }
+    }
+  }
+
+  /*
+   * Called by a breakpoint that was hit. Ends a step in progress, then hands over to the listener.
+   */
+  void hit(Breakpoint breakpoint, Environment environment) {
+    endStep();
+    listener.paused(this, breakpoint.line, environment);
+  }
+
+  private void endStep() {
+    for (Site site : steps) {
+      uninstall(site);
+    }
+    steps.clear();
+  }
+
+  private int lineOf(Site site) {
+    Integer line = lines.get(unwrap(site.statements.get(site.index)));
+    return line == null ? -1 : line;
+  }
+
+  private boolean install(Site site, int line) {
+    Stmt current = site.statements.get(site.index);
+    if (current instanceof Breakpoint) return false;
+    site.statements.set(site.index, new Breakpoint(this, current, line));
+    if (site.function != null) interpreter.armBreakpoint(site.function);
+    return true;
+  }
+
+  private void uninstall(Site site) {
+    Stmt current = site.statements.get(site.index);
+    if (!(current instanceof Breakpoint)) return;
+    Breakpoint breakpoint = (Breakpoint) current;
+    breakpoint.active = false;
+    site.statements.set(site.index, breakpoint.statement);
+    if (site.function != null) interpreter.disarmBreakpoint(site.function);
+  }
+
+  private static Stmt unwrap(Stmt stmt) {
+    return stmt instanceof Breakpoint ? ((Breakpoint) stmt).statement : stmt;
+  }
+
+  /**
+   * * Every slot of the statement lists nested in the given one, outer statements first.
+   * @param statements
+   * @param function the function the list belongs to
+   * @param sites where to add them
+   * @return sites
+   */
+  private static List<Site> sites(List<Stmt> statements, Stmt.Function function, List<Site> sites) {
+    for (int i = 0; i < statements.size(); i++) {
+      sites.add(new Site(statements, i, function));
+      nested(unwrap(statements.get(i)), function, sites);
+    }
+    return sites;
+  }
+
+  private static void nested(Stmt stmt, Stmt.Function function, List<Site> sites) {
+    if (stmt instanceof Stmt.Block) {
+      sites(((Stmt.Block) stmt).statements, function, sites);
+    } else if (stmt instanceof Stmt.If) {
+      nested(((Stmt.If) stmt).thenBranch, function, sites);
+      if (((Stmt.If) stmt).elseBranch != null) nested(((Stmt.If) stmt).elseBranch, function, sites);
+    } else if (stmt instanceof Stmt.While) {
+      nested(((Stmt.While) stmt).body, function, sites);
+    } else if (stmt instanceof Stmt.Function) {
+      sites(((Stmt.Function) stmt).body, (Stmt.Function) stmt, sites);
+    } else if (stmt instanceof Stmt.Class) {
+      for (Stmt.Function method : ((Stmt.Class) stmt).methods) {
+        sites(method.body, method, sites);
+      }
+    }
+  }
+}
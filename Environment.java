@@ -1,7 +1,9 @@
 package lox;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * * The bindings that associates variables to values needs to be stored somewhere.
@@ -11,22 +13,52 @@ import java.util.Map;
 
 class Environment {
 
-  final Environment enclosing;
+  // * Not final so that a recycled environment can be re-parented (see reset)
+  Environment enclosing;
 
   // * Used to store the bindings
   private final Map<String, Object> values = new HashMap<>();
 
   Environment() {
     enclosing = null;
+    LoxMetrics.metrics.environmentAllocations.increment();
   }
 
   Environment(Environment enclosising) {
     this.enclosing = enclosising;
+    LoxMetrics.metrics.environmentAllocations.increment();
+  }
+
+  /*
+   * Drops every binding and re-parents this environment so the interpreter can hand
+   * it out again for a scope that never escapes into a closure.
+   */
+  void reset(Environment enclosing) {
+    values.clear();
+    this.enclosing = enclosing;
+  }
+
+  /*
+   * The values bound here, cells included, for the memory meter.
+   */
+  Collection<Object> bindings() {
+    return values.values();
+  }
+
+  /*
+   * The variables bound here by name, with their current values, for the debugger.
+   */
+  Map<String, Object> variables() {
+    Map<String, Object> variables = new TreeMap<>();
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      variables.put(entry.getKey(), unwrap(entry.getValue()));
+    }
+    return variables;
   }
 
   Object get(Token name) {
     if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
+      return unwrap(values.get(name.lexeme));
     }
 
     // * If varialbe isn't found in this envrionment, we simply try the enclosing one.
@@ -47,6 +79,31 @@ class Environment {
     values.put(name, value);
   }
 
+  /*
+   * Globals live in cells that are allocated on first definition and reused when the name is
+   * defined again, so a reference that found the cell once can keep using it.
+   */
+  void defineGlobal(String name, Object value) {
+    Object current = values.get(name);
+    if (current instanceof Cell) {
+      ((Cell) current).value = value;
+    } else {
+      values.put(name, new Cell(value));
+    }
+  }
+
+  /*
+   * The cell of a global, only valid on the globals environment.
+   */
+  Cell globalCell(Token name) {
+    Object cell = values.get(name.lexeme);
+    if (cell instanceof Cell) {
+      return (Cell) cell;
+    }
+
+    throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+  }
+
   /*
    * This walks a fixed number of hops up the parent chain and returns the environment there
    */
@@ -62,6 +119,14 @@ class Environment {
    * It walks a fixed number of environments, and then get the value from that map.
    */
   Object getAt(int distance, String name) {
+    return unwrap(ancestor(distance).values.get(name));
+  }
+
+  /*
+   * Same as getAt, but hands back the cell itself for a captured variable. A closure copies
+   * this into its flat environment so it shares the variable instead of a snapshot of it.
+   */
+  Object getRawAt(int distance, String name) {
     return ancestor(distance).values.get(name);
   }
 
@@ -69,12 +134,19 @@ class Environment {
    * It walks a fixed number of environments, and then stuffs the new value in that map.
    */
   void assignAt(int distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+    ancestor(distance).store(name, value);
+  }
+
+  /*
+   * The unboxed storage of a variable declared ': num'.
+   */
+  NumberCell numberAt(int distance, String name) {
+    return (NumberCell) ancestor(distance).values.get(name);
   }
 
   void assign(Token name, Object value) {
     if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
+      store(name, value);
       return;
     }
 
@@ -88,4 +160,29 @@ class Environment {
     throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
   }
 
+  /*
+   * Writes through the cell when the variable is captured, so every closure sharing it sees the update.
+   * A variable declared ': num' only accepts numbers.
+   */
+  private void store(Token name, Object value) {
+    Object current = values.get(name.lexeme);
+    if (current instanceof Cell) {
+      ((Cell) current).value = value;
+    } else if (current instanceof NumberCell) {
+      ((NumberCell) current).value = Interpreter.checkNumber(name, value);
+    } else {
+      values.put(name.lexeme, value);
+    }
+  }
+
+  private static Object unwrap(Object value) {
+    if (value instanceof Cell) {
+      return ((Cell) value).value;
+    }
+    if (value instanceof NumberCell) {
+      return ((NumberCell) value).value;
+    }
+    return value;
+  }
+
 }
@@ -0,0 +1,11 @@
+package lox;
+
+/*
+ * Where the scanner, parser and resolver send compile errors. Lox.reporter prints them to stderr,
+ * other front ends can collect them instead.
+ */
+interface ErrorReporter {
+  void error(int line, String message);
+
+  void error(Token token, String message);
+}
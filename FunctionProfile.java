@@ -0,0 +1,105 @@
+package lox;
+
+/*
+ * Execution counts of one function declaration, shared by every closure created from it.
+ * Once either count crosses its threshold the body is compiled in the background, and every
+ * call after the compiled code is published runs that instead of the tree-walker. A frame that
+ * is already running stays in the tree-walker to its end: there is no on-stack replacement, so
+ * a long loop crossing the back edge threshold only speeds up the calls after it.
+ * A declaration proven pure also keeps its memoized results here.
+ */
+class FunctionProfile {
+  static final int INVOCATION_THRESHOLD = 1000;
+  static final int BACK_EDGE_THRESHOLD = 10000;
+
+  private final Stmt.Function declaration;
+  int invocations = 0;
+  // * Loop iterations run by the interpreted body
+  int backEdges = 0;
+  private boolean queued = false;
+  // * Breakpoints set in the body; while there are any it stays interpreted
+  private int armed = 0;
+
+  // * Written by the compiler thread, read by the interpreter on every call
+  volatile Compiler.Action compiled = null;
+  // * Bumped whenever the body changes, so a compilation of the old body isn't published
+  private int version = 0;
+
+  // * Only set for pure functions when memoization is switched on
+  MemoCache memo = null;
+
+  FunctionProfile(Stmt.Function declaration) {
+    this.declaration = declaration;
+  }
+
+  /**
+   * * Counts an interpreted call and queues the body for compilation once it is hot.
+   * @param interpreter
+   */
+  void countInvocation(Interpreter interpreter) {
+    invocations++;
+    if (armed > 0) return;
+    if (interpreter.compilesAll()) {
+      // * Compiled right away, on this thread, so this very call runs it
+      publish(new Compiler(interpreter).compile(declaration.body), version());
+      return;
+    }
+    if (!queued && invocations >= INVOCATION_THRESHOLD) queue(interpreter);
+  }
+
+  /**
+   * * Counts a loop iteration of an interpreted frame, queueing the body as soon as the loops
+   * * are hot rather than at the next call, so the compiled code is ready by then.
+   * @param interpreter
+   */
+  void countBackEdge(Interpreter interpreter) {
+    if (++backEdges >= BACK_EDGE_THRESHOLD && !queued && armed == 0) queue(interpreter);
+  }
+
+  private void queue(Interpreter interpreter) {
+    queued = true;
+    Compiler.compileInBackground(interpreter, declaration, this);
+  }
+
+  /*
+   * A breakpoint was set in the body.
+   */
+  void arm() {
+    armed++;
+    invalidate();
+  }
+
+  /*
+   * A breakpoint was cleared from the body.
+   */
+  void disarm() {
+    armed--;
+  }
+
+  /*
+   * The version of the body a compilation about to start will see.
+   */
+  synchronized int version() {
+    return version;
+  }
+
+  /**
+   * * Publishes compiled code, unless the body changed while it was compiled.
+   * @param action
+   * @param version the version the code was compiled from
+   */
+  synchronized void publish(Compiler.Action action, int version) {
+    if (version == this.version) compiled = action;
+  }
+
+  /*
+   * Drops the compiled code and starts counting afresh.
+   */
+  synchronized void invalidate() {
+    version++;
+    compiled = null;
+    queued = false;
+    invocations = 0;
+    backEdges = 0;
+  }
+}
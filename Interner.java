@@ -0,0 +1,47 @@
+package lox;
+
+/*
+ * Canonical copies of the strings scripts use, so that comparing two of them is a reference
+ * check instead of a scan of their characters.
+ *
+ * The table is the JVM's own string table, which is concurrent and only holds its strings weakly,
+ * so a string no script can reach anymore is collected like any other. Only strings up to
+ * MAX_LENGTH are interned: they are the names and tags scripts compare in hot loops, and
+ * interning the long strings that concatenation builds up would cost more than it saves.
+ *
+ * The scanner interns string literals and identifiers (so property and method names come from
+ * the same table), and so do concatenation and the natives that return new strings. Equality
+ * doesn't depend on that being complete, though: any path that makes a string without going
+ * through here would otherwise silently break '=='. Equal strings that were both interned are
+ * the same object, which answers at once, and anything else is compared by its characters.
+ * Slices are never interned; they compare by their characters too (see StringSlice.same).
+ */
+final class Interner {
+  static final int MAX_LENGTH = 64;
+
+  private Interner() {
+  }
+
+  static String intern(String text) {
+    return text.length() <= MAX_LENGTH ? text.intern() : text;
+  }
+
+  /*
+   * Interns what a native hands back to a script, if it's a String.
+   */
+  static CharSequence intern(CharSequence text) {
+    return text instanceof String ? intern((String) text) : text;
+  }
+
+  /**
+   * * Whether two string values are equal. Two interned ones that are equal are the same
+   * * object; when the references differ the characters decide, since either side may have
+   * * been made without going through the interner.
+   * @param a
+   * @param b
+   * @return boolean
+   */
+  static boolean same(String a, String b) {
+    return a == b || a.equals(b);
+  }
+}
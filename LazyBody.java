@@ -0,0 +1,95 @@
+package lox;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The body of a top level function that the parser only brace matched. Its tokens are parsed,
+ * resolved and type checked the first time the function is called, so a library's functions
+ * cost nothing beyond scanning until a script actually uses them.
+ *
+ * The price is that every error in the body, syntax errors included, is only reported on that
+ * first call: after whatever the script did before it, and never for a function that isn't
+ * called. Runs with coverage, the debugger or memoization parse every body up front.
+ *
+ * Only top level functions are deferred: they can't capture anything but globals, which are late
+ * bound, so resolving them later gives exactly the same result as resolving them with the rest
+ * of the program. Anything else reading the body as a list parses it on the spot.
+ */
+final class LazyBody extends AbstractList<Stmt> {
+  // * The tokens between the braces, and the closing brace
+  private final List<Token> tokens;
+  private final Token closing;
+  // * Whether the body or the signature has type annotations, so it needs the type checker
+  private final boolean annotated;
+
+  private List<Stmt> statements = null;
+  private volatile boolean prepared = false;
+
+  LazyBody(List<Token> tokens, Token closing, boolean annotated) {
+    this.tokens = tokens;
+    this.closing = closing;
+    this.annotated = annotated;
+  }
+
+  /**
+   * * Readies the function for its first call. Errors in the body are reported like any other
+   * * compile error, and fail the call.
+   * @param interpreter
+   * @param function the declaration this is the body of
+   */
+  void prepare(Interpreter interpreter, Stmt.Function function) {
+    if (prepared) return;
+
+    int[] errors = {0};
+    ErrorReporter reporter = new ErrorReporter() {
+      @Override
+      public void error(int line, String message) {
+        errors[0]++;
+        Lox.reporter.error(line, message);
+      }
+
+      @Override
+      public void error(Token token, String message) {
+        errors[0]++;
+        Lox.reporter.error(token, message);
+      }
+    };
+
+    statements = parse(reporter);
+    if (errors[0] == 0) {
+      new Resolver(interpreter, reporter).resolveDeferred(function);
+    }
+    if (errors[0] == 0 && annotated) {
+      new TypeChecker(interpreter, reporter).checkDeferred(function);
+    }
+    if (errors[0] > 0) {
+      statements = null;
+      throw new RuntimeError(function.name, "Can't call '" + function.name.lexeme + "', its body has errors.");
+    }
+    prepared = true;
+  }
+
+  private List<Stmt> parse(ErrorReporter reporter) {
+    List<Token> body = new ArrayList<>(tokens.size() + 1);
+    body.addAll(tokens);
+    body.add(new Token(TokenType.EOF, "", null, closing.line, closing.offset));
+    return new Parser(body, reporter).parse();
+  }
+
+  private List<Stmt> statements() {
+    if (statements == null) statements = parse(Lox.reporter);
+    return statements;
+  }
+
+  @Override
+  public Stmt get(int index) {
+    return statements().get(index);
+  }
+
+  @Override
+  public int size() {
+    return statements().size();
+  }
+}
@@ -3,32 +3,143 @@ package lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Lox {
-  private static final Interpreter interpreter = new Interpreter();
+  private static Interpreter interpreter;
 
   // * Vars
   static boolean hadError = false;
   static boolean hadRuntimeError = false;
 
+  // * Command line options, applied to every interpreter this process creates
+  private static long fuel = 0;
+  private static long timeoutMillis = 0;
+  private static boolean memoize = false;
+  private static long memoryBytes = 0;
+  private static boolean memoryReport = false;
+  private static boolean debug = false;
+  private static Path coverage = null;
+  private static boolean compileAll = false;
+
+  private static final String USAGE =
+      "Usage: jlox [options] [script]\n" +
+      "       jlox --daemon [--socket=PATH] [options]\n" +
+      "Options: --fuel=N --timeout=MS --memory=BYTES --memory-report --memoize --debug\n" +
+      "         --coverage=PATH --compile";
+
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    List<String> operands = new ArrayList<>();
+    boolean daemon = false;
+    Path socket = LoxDaemon.defaultSocket();
+    for (String arg : args) {
+      if (arg.equals("--daemon")) {
+        daemon = true;
+      } else if (arg.startsWith("--socket=")) {
+        socket = Paths.get(arg.substring("--socket=".length()));
+      } else if (arg.startsWith("--fuel=")) {
+        fuel = parseLimit(arg);
+      } else if (arg.startsWith("--timeout=")) {
+        timeoutMillis = parseLimit(arg);
+      } else if (arg.startsWith("--memory=")) {
+        memoryBytes = parseLimit(arg);
+      } else if (arg.equals("--memory-report")) {
+        memoryReport = true;
+      } else if (arg.equals("--memoize")) {
+        memoize = true;
+      } else if (arg.equals("--debug")) {
+        debug = true;
+      } else if (arg.equals("--compile")) {
+        compileAll = true;
+      } else if (arg.startsWith("--coverage=")) {
+        coverage = Paths.get(arg.substring("--coverage=".length()));
+      } else if (arg.startsWith("--")) {
+        usage();
+      } else {
+        operands.add(arg);
+      }
+    }
+    interpreter = newInterpreter();
+
+    // * The debugger takes its commands from standard input, so it needs a script to run
+    if (debug && (daemon || operands.size() != 1)) usage();
+    // * Coverage is written when the process is done, which a daemon never is
+    if (coverage != null && daemon) usage();
+
+    if (daemon) {
+      if (!operands.isEmpty()) usage();
+      try {
+        new LoxDaemon(socket).serve();
+      } catch (IOException e) {
+        System.err.println("Can't serve on " + socket + ": " + e.getMessage());
+        System.exit(74);
+      }
+    } else if (operands.size() > 1) {
+      usage();
+    } else if (operands.size() == 1) {
+      runFile(operands.get(0));
     } else {
       runPrompt();
     }
   }
 
+  /*
+   * A fresh interpreter set up with the options given on the command line.
+   */
+  static Interpreter newInterpreter() {
+    Interpreter interpreter = new Interpreter();
+    interpreter.setLimits(fuel, timeoutMillis, memoryBytes);
+    interpreter.setMemoryReport(memoryReport);
+    interpreter.setMemoize(memoize);
+    if (coverage != null) interpreter.setCoverage(new Coverage());
+    interpreter.setCompileAll(compileAll);
+    return interpreter;
+  }
+
+  private static void usage() {
+    System.out.println(USAGE);
+    System.exit(64);
+  }
+
+  /**
+   * * Reads the value of a --name=N option. Limits are never negative.
+   * @param option
+   * @return long
+   */
+  private static long parseLimit(String option) {
+    try {
+      long value = Long.parseLong(option.substring(option.indexOf('=') + 1));
+      if (value >= 0) return value;
+    } catch (NumberFormatException e) {
+      // * Reported as a usage error below
+    }
+    usage();
+    return 0;
+  }
+
+  /*
+   * Writes the coverage of everything the interpreter ran, when --coverage asked for it.
+   */
+  private static void writeCoverage(String source) throws IOException {
+    if (coverage == null) return;
+    try (Writer out = Files.newBufferedWriter(coverage)) {
+      interpreter.coverage().write(out, source);
+    }
+  }
+
   private static void runFile(String path) throws IOException {
     byte[] bytes = Files.readAllBytes(Paths.get(path));
     run(new String(bytes, Charset.defaultCharset()));
+    writeCoverage(path);
     // * Indicate on error in the exit code
     if (hadError)
       System.exit(65);
@@ -49,13 +160,25 @@ public class Lox {
       run(line);
       hadError = false;
     }
+    writeCoverage("<stdin>");
   }
 
   private static void run(String source) {
+    run(source, interpreter);
+  }
+
+  /**
+   * * Runs a program on the given interpreter. The daemon uses a fresh one for every job.
+   * @param source
+   * @param interpreter
+   */
+  static void run(String source, Interpreter interpreter) {
     System.out.println(source);
     // * Step 1: Scanning / Lexical Analysis
+    long phaseStart = System.nanoTime();
     Scanner scanner = new Scanner(source);
     List<Token> tokens = scanner.scanTokens();
+    phaseStart = recordPhase(LoxMetrics.metrics.scanNanos, phaseStart);
 
     // * Tokens
     // for(Token token: tokens) {
@@ -64,9 +187,21 @@ public class Lox {
 
     // * Parse the tokens
     Parser parser = new Parser(tokens);
+    // * The purity analysis, the debugger and coverage need every body up front
+    Map<Stmt, Integer> lines = null;
+    if (interpreter.coverage() != null) {
+      lines = interpreter.coverage().lines();
+    } else if (debug) {
+      lines = new HashMap<>();
+    }
+    parser.deferBodies(!interpreter.memoizes() && lines == null);
+    if (lines != null) {
+      parser.recordLines(lines);
+    }
     // Expr expression = parser.parse();
     // System.out.println(new AstPrinter().print(expression));
     List<Stmt> statements = parser.parse();
+    phaseStart = recordPhase(LoxMetrics.metrics.parseNanos, phaseStart);
 
     // * Stop if there was a syntax error
     if (hadError)
@@ -74,17 +209,64 @@ public class Lox {
 
     // * Run the Resolver
     Resolver resolver = new Resolver(interpreter);
-    resolver.resolve(statements);
+    resolver.resolveProgram(statements);
+    phaseStart = recordPhase(LoxMetrics.metrics.resolveNanos, phaseStart);
 
     // * Stop if there was an resolution error.
     if (hadError)
       return;
 
+    // * Verify type annotations, only needed when there are some
+    if (parser.hasAnnotations()) {
+      new TypeChecker(interpreter).check(statements);
+      if (hadError)
+        return;
+    }
+
+    // * Find the functions whose calls can be memoized
+    if (interpreter.memoizes()) {
+      interpreter.purity().analyze(statements);
+    }
+
     // interpreter.interpret(expression);
+    if (debug) {
+      DebugConsole.attach(interpreter, statements, lines, source);
+    }
     System.out.println("---- Output ----");
     interpreter.interpret(statements);
+    recordPhase(LoxMetrics.metrics.executeNanos, phaseStart);
+
+    if (memoryReport) {
+      System.err.println("Peak memory: " + interpreter.peakMemory() + " bytes (estimated)");
+    }
+  }
+
+  /**
+   * * Adds the time since the phase started to its counter and returns the current time,
+   * * which is where the next phase starts.
+   * @param phase
+   * @param start
+   * @return long
+   */
+  private static long recordPhase(LongAdder phase, long start) {
+    long now = System.nanoTime();
+    phase.add(now - start);
+    return now;
   }
 
+  // * Prints compile errors, the reporter the front end uses unless it's given another one
+  static final ErrorReporter reporter = new ErrorReporter() {
+    @Override
+    public void error(int line, String message) {
+      Lox.error(line, message);
+    }
+
+    @Override
+    public void error(Token token, String message) {
+      Lox.error(token, message);
+    }
+  };
+
   static void error(int line, String message) {
     report(line, "", message);
   }
@@ -108,7 +290,7 @@ public class Lox {
    * @param error
    */
   static void RuntimeError(RuntimeError error) {
-    System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+    System.err.println(error.getMessage() + "\n" + error.traceback());
     hadRuntimeError = true;
   }
 
@@ -1,23 +1,49 @@
 package lox;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 class LoxClass implements LoxCallable {
   final String name;
+  final LoxClass superclass;
+  // * Every method the class responds to, inherited ones included, so lookup never walks
+  // * up the hierarchy
   private final Map<String, LoxFunction> methods;
 
-  LoxClass(String name, Map<String, LoxFunction> methods) {
+  LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
     this.name = name;
-    this.methods = methods;
+    this.superclass = superclass;
+    this.methods = new HashMap<>();
+    // * The superclass table is already flat, own methods override what's inherited
+    if (superclass != null) {
+      this.methods.putAll(superclass.methods);
+    }
+    this.methods.putAll(methods);
   }
 
   // * Returns the method property of class
   LoxFunction findMethod(String name) {
-    if(methods.containsKey(name)) {
-      return methods.get(name);
+    return methods.get(name);
+  }
+
+  Collection<LoxFunction> methods() {
+    return methods.values();
+  }
+
+  /**
+   * * Looks up a method for super.method, binding it to the instance the caller runs on.
+   * @param instance
+   * @param method
+   * @return LoxFunction bound method
+   */
+  LoxFunction bindSuper(LoxInstance instance, Token method) {
+    LoxFunction function = findMethod(method.lexeme);
+    if (function == null) {
+      throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
     }
-    return null;
+    return function.bind(instance);
   }
 
   @Override
@@ -28,6 +54,7 @@ class LoxClass implements LoxCallable {
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
     LoxInstance instance = new LoxInstance(this);
+    interpreter.allocate(MemoryMeter.INSTANCE);
     LoxFunction initializer = findMethod("init");
     if(initializer != null)  {
       initializer.bind(instance).call(interpreter, arguments);
@@ -0,0 +1,100 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/*
+ * Thin launcher for scripts run by a resident LoxDaemon. It only sends the job and copies the
+ * streamed output back, so it has almost nothing to load or warm up. When no daemon is
+ * listening it falls back to running the script itself.
+ */
+public class LoxClient {
+  public static void main(String[] args) throws IOException {
+    Path socket = LoxDaemon.defaultSocket();
+    String script = null;
+    for (String arg : args) {
+      if (arg.startsWith("--socket=")) {
+        socket = Paths.get(arg.substring("--socket=".length()));
+      } else if (script == null) {
+        script = arg;
+      } else {
+        script = null;
+        break;
+      }
+    }
+    if (script == null) {
+      System.out.println("Usage: jlox-client [--socket=PATH] script|-");
+      System.exit(64);
+    }
+
+    SocketChannel channel;
+    try {
+      channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+    } catch (IOException e) {
+      // * No daemon, so pay for a direct launch
+      if (script.equals("-")) {
+        System.err.println("No jlox daemon at " + socket + ".");
+        System.exit(69);
+      }
+      Lox.main(new String[] { script });
+      return;
+    }
+
+    try (channel) {
+      DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+      if (script.equals("-")) {
+        byte[] source = System.in.readAllBytes();
+        out.write(("SOURCE " + source.length + "\n").getBytes(StandardCharsets.UTF_8));
+        out.write(source);
+      } else {
+        // * The daemon has its own working directory
+        String path = Paths.get(script).toAbsolutePath().toString();
+        out.write(("FILE " + path + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+      out.flush();
+
+      System.exit(copyFrames(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)))));
+    }
+  }
+
+  /**
+   * * Copies stdout and stderr frames to this process' streams until the exit frame arrives.
+   * @param in
+   * @return exit code of the script
+   * @throws IOException
+   */
+  private static int copyFrames(DataInputStream in) throws IOException {
+    PrintStream stdout = System.out;
+    PrintStream stderr = System.err;
+    while (true) {
+      byte tag = in.readByte();
+      byte[] payload = new byte[in.readInt()];
+      in.readFully(payload);
+
+      switch (tag) {
+        case LoxDaemon.STDOUT:
+          stdout.write(payload);
+          stdout.flush();
+          break;
+        case LoxDaemon.STDERR:
+          stderr.write(payload);
+          stderr.flush();
+          break;
+        case LoxDaemon.EXIT:
+          return ((payload[0] & 0xff) << 24) | ((payload[1] & 0xff) << 16)
+              | ((payload[2] & 0xff) << 8) | (payload[3] & 0xff);
+        default:
+          throw new IOException("Unexpected frame from daemon: " + tag);
+      }
+    }
+  }
+}
@@ -0,0 +1,261 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Set;
+
+/*
+ * A resident jlox that keeps one warmed-up JVM around, so short scripts stop paying for JVM
+ * startup, class loading and a cold JIT on every launch. LoxClient talks to it over a Unix
+ * domain socket, one job per connection:
+ *
+ *   request:   "FILE <path>\n", or "SOURCE <length>\n" followed by that many bytes of UTF-8
+ *   response:  frames of [tag][int length][payload], where 'O' carries stdout, 'E' carries
+ *              stderr and a final 'X' carries the exit code as an int
+ *
+ * Exit codes follow Lox.runFile: 65 for a syntax or resolution error, 70 for a runtime error,
+ * and 64 for a request the daemon can't make sense of.
+ * Every job gets a fresh Interpreter so no globals leak from one script to the next. Jobs run
+ * one after the other because the interpreter reports through System.out, System.err and the
+ * static error flags in Lox. The options the daemon was started with apply to every job.
+ *
+ * Only the user running the daemon may connect to it: a job can read and write any file the
+ * daemon can. The default socket sits in a directory only that user can enter, and any socket
+ * is made owner-only before the first connection is accepted.
+ */
+class LoxDaemon {
+  static final byte STDOUT = 'O';
+  static final byte STDERR = 'E';
+  static final byte EXIT = 'X';
+
+  // * Limits on what a client may send, so a bad request can't exhaust the daemon's memory
+  static final int MAX_REQUEST_LINE = 8192;
+  static final int MAX_SOURCE_BYTES = 64 * 1024 * 1024;
+
+  private final Path socket;
+
+  // * The daemon's own streams, which jobs temporarily replace
+  private final PrintStream stdout = System.out;
+  private final PrintStream stderr = System.err;
+
+  LoxDaemon(Path socket) {
+    this.socket = socket;
+  }
+
+  static Path defaultSocket() {
+    return Paths.get(System.getProperty("java.io.tmpdir"), "jlox-" + System.getProperty("user.name"), "daemon.sock");
+  }
+
+  /**
+   * * Accepts jobs until the process is killed.
+   * @throws IOException
+   */
+  void serve() throws IOException {
+    UserPrincipal user = FileSystems.getDefault().getUserPrincipalLookupService()
+        .lookupPrincipalByName(System.getProperty("user.name"));
+    if (socket.equals(defaultSocket())) {
+      privateDirectory(socket.getParent(), user);
+    }
+    // * A socket file left behind by a daemon that died would make bind fail
+    if (Files.exists(socket, LinkOption.NOFOLLOW_LINKS)) {
+      if (!user.equals(Files.getOwner(socket, LinkOption.NOFOLLOW_LINKS))) {
+        throw new IOException(socket + " belongs to another user.");
+      }
+      Files.delete(socket);
+    }
+
+    try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(socket));
+      socket.toFile().deleteOnExit();
+      Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+      stderr.println("jlox daemon listening on " + socket);
+
+      while (true) {
+        try (SocketChannel client = server.accept()) {
+          serve(client);
+        } catch (IOException e) {
+          stderr.println("Lost client: " + e.getMessage());
+        } catch (RuntimeException e) {
+          // * Whatever went wrong with this client, the next one still gets served
+          stderr.println("Failed job: " + e);
+        }
+      }
+    }
+  }
+
+  /**
+   * * Creates the directory, or takes over the one already there if it's the user's own, and
+   * * leaves it accessible to the user only.
+   * @param directory
+   * @param user
+   * @throws IOException when it isn't the user's directory
+   */
+  private static void privateDirectory(Path directory, UserPrincipal user) throws IOException {
+    Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rwx------");
+    if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+      Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(ownerOnly));
+    }
+    if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)
+        || !user.equals(Files.getOwner(directory, LinkOption.NOFOLLOW_LINKS))) {
+      throw new IOException(directory + " is not a directory of " + user.getName() + ".");
+    }
+    Files.setPosixFilePermissions(directory, ownerOnly);
+  }
+
+  private void serve(SocketChannel client) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+
+    int exitCode;
+    String request = readLine(in);
+    if (request.startsWith("SOURCE ")) {
+      int length = sourceLength(request.substring("SOURCE ".length()));
+      if (length < 0) {
+        writeFrame(out, STDERR, ("Bad source length: " + request + "\n").getBytes(StandardCharsets.UTF_8));
+        exitCode = 64;
+      } else {
+        byte[] source = new byte[length];
+        in.readFully(source);
+        exitCode = run(new String(source, StandardCharsets.UTF_8), out);
+      }
+    } else if (request.startsWith("FILE ")) {
+      exitCode = runFile(Paths.get(request.substring("FILE ".length())), out);
+    } else {
+      writeFrame(out, STDERR, ("Unknown request: " + request + "\n").getBytes(StandardCharsets.UTF_8));
+      exitCode = 64;
+    }
+
+    writeFrame(out, EXIT, new byte[] {
+        (byte) (exitCode >>> 24), (byte) (exitCode >>> 16), (byte) (exitCode >>> 8), (byte) exitCode });
+    out.flush();
+  }
+
+  /**
+   * * The length in a SOURCE header.
+   * @param header
+   * @return the length, or -1 if it isn't a number from 0 to MAX_SOURCE_BYTES
+   */
+  private static int sourceLength(String header) {
+    try {
+      int length = Integer.parseInt(header.trim());
+      return length >= 0 && length <= MAX_SOURCE_BYTES ? length : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private int runFile(Path path, DataOutputStream out) throws IOException {
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(path);
+    } catch (NoSuchFileException e) {
+      writeFrame(out, STDERR, ("No such file: " + path + "\n").getBytes(StandardCharsets.UTF_8));
+      return 66;
+    }
+    return run(new String(bytes, Charset.defaultCharset()), out);
+  }
+
+  /**
+   * * Runs one script with its output streamed back to the client as it is printed.
+   * @param source
+   * @param out
+   * @return exit code
+   */
+  private int run(String source, DataOutputStream out) {
+    PrintStream jobOut = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, STDOUT)), true);
+    PrintStream jobErr = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, STDERR)), true);
+    System.setOut(jobOut);
+    System.setErr(jobErr);
+
+    Lox.hadError = false;
+    Lox.hadRuntimeError = false;
+    Interpreter interpreter = Lox.newInterpreter();
+    try {
+      Lox.run(source, interpreter);
+    } catch (StackOverflowError error) {
+      jobErr.println("Stack overflow.");
+      Lox.hadRuntimeError = true;
+    } catch (RuntimeException | Error error) {
+      // * A bug or an exhausted JVM fails this job only, not the daemon
+      jobErr.println("Internal error: " + error);
+      Lox.hadRuntimeError = true;
+    } finally {
+      interpreter.closeFiles();
+      jobOut.flush();
+      jobErr.flush();
+      System.setOut(stdout);
+      System.setErr(stderr);
+    }
+
+    if (Lox.hadError) return 65;
+    if (Lox.hadRuntimeError) return 70;
+    return 0;
+  }
+
+  static void writeFrame(DataOutputStream out, byte tag, byte[] payload) throws IOException {
+    writeFrame(out, tag, payload, 0, payload.length);
+  }
+
+  static void writeFrame(DataOutputStream out, byte tag, byte[] payload, int offset, int length) throws IOException {
+    synchronized (out) {
+      out.writeByte(tag);
+      out.writeInt(length);
+      out.write(payload, offset, length);
+      out.flush();
+    }
+  }
+
+  private static String readLine(DataInputStream in) throws IOException {
+    StringBuilder line = new StringBuilder();
+    for (int c = in.read(); c != '\n'; c = in.read()) {
+      if (c == -1) throw new IOException("Connection closed before the request was complete.");
+      if (line.length() == MAX_REQUEST_LINE) throw new IOException("Request line too long.");
+      line.append((char) c);
+    }
+    return line.toString();
+  }
+
+  /*
+   * Turns everything a job prints on one of its streams into frames for the client.
+   */
+  private static class FrameOutputStream extends OutputStream {
+    private final DataOutputStream out;
+    private final byte tag;
+
+    FrameOutputStream(DataOutputStream out, byte tag) {
+      this.out = out;
+      this.tag = tag;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      writeFrame(out, tag, bytes, offset, length);
+    }
+  }
+}
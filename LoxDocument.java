@@ -0,0 +1,337 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Incremental front end for a source file that is being edited. The text is split into segments,
+ * one per top level declaration, each holding its syntax tree and the errors found in it. An edit
+ * only re-scans, re-parses and re-resolves the segments it touches, so the work per keystroke
+ * depends on the size of the declarations around it rather than on the size of the file.
+ *
+ * Resolution never looks across top level declarations (globals are late bound), which is why
+ * the declarations that were re-parsed are the only ones that need resolving again.
+ */
+class LoxDocument {
+  private final Interpreter interpreter;
+  private String text;
+  private final List<Segment> segments = new ArrayList<>();
+
+  /*
+   * Compile error, with its line as of when its segment was last scanned.
+   */
+  static class Diagnostic {
+    final int line;
+    final String where;
+    final String message;
+
+    Diagnostic(int line, String where, String message) {
+      this.line = line;
+      this.where = where;
+      this.message = message;
+    }
+
+    @Override
+    public String toString() {
+      return "[line " + line + "] Error" + where + ": " + message;
+    }
+  }
+
+  /*
+   * The text of one top level declaration together with whatever follows it up to the next one.
+   * Tokens and diagnostics keep the lines they had when the segment was scanned; scannedLine is
+   * what lets them be shifted when an edit above adds or removes lines.
+   */
+  private static class Segment {
+    final int length;
+    final String text;
+    final int scannedLine;
+    final int newlines;
+    final List<Stmt> statements;
+    final List<Diagnostic> diagnostics;
+
+    Segment(String text, int scannedLine, List<Stmt> statements, List<Diagnostic> diagnostics) {
+      this.length = text.length();
+      this.text = text;
+      this.scannedLine = scannedLine;
+      this.newlines = countNewlines(text);
+      this.statements = statements;
+      this.diagnostics = diagnostics;
+    }
+  }
+
+  /*
+   * Collects the errors of the region being rebuilt.
+   */
+  private static class Collector implements ErrorReporter {
+    final List<Diagnostic> diagnostics = new ArrayList<>();
+    // * Index of the declaration being parsed when each error came up, -1 while scanning
+    final List<Integer> owners = new ArrayList<>();
+    List<Integer> starts = null;
+
+    @Override
+    public void error(int line, String message) {
+      add(new Diagnostic(line, "", message));
+    }
+
+    @Override
+    public void error(Token token, String message) {
+      if (token.type == TokenType.EOF) {
+        add(new Diagnostic(token.line, " at end", message));
+      } else {
+        add(new Diagnostic(token.line, " at '" + token.lexeme + "'", message));
+      }
+    }
+
+    private void add(Diagnostic diagnostic) {
+      diagnostics.add(diagnostic);
+      owners.add(starts == null ? -1 : starts.size() - 1);
+    }
+  }
+
+  /**
+   * * Scans, parses and resolves the whole source once. Resolution results go into the
+   * * interpreter's tables, where they stay even after the declaration is edited away.
+   * @param source
+   * @param interpreter
+   */
+  LoxDocument(String source, Interpreter interpreter) {
+    this.interpreter = interpreter;
+    this.text = source;
+    rebuild(0, 0, 0, 1);
+  }
+
+  String text() {
+    return text;
+  }
+
+  /**
+   * * Replaces removed characters at offset with the inserted text, then rebuilds the
+   * * segments the edit touched.
+   * @param offset
+   * @param removed
+   * @param inserted
+   */
+  void edit(int offset, int removed, String inserted) {
+    if (offset < 0 || removed < 0 || offset + removed > text.length()) {
+      throw new IndexOutOfBoundsException("Edit outside of the document.");
+    }
+    text = text.substring(0, offset) + inserted + text.substring(offset + removed);
+
+    // * Find the damaged segments, starting one early since the edit may complete the
+    // * declaration in front of it
+    int first = 0;
+    int start = 0;
+    int line = 1;
+    while (first < segments.size() && start + segments.get(first).length < offset) {
+      start += segments.get(first).length;
+      line += segments.get(first).newlines;
+      first++;
+    }
+    if (first > 0) {
+      first--;
+      start -= segments.get(first).length;
+      line -= segments.get(first).newlines;
+    }
+
+    // * A segment starting right where the edit ends is damaged too: inserted text runs into it
+    int last = first;
+    int end = start;
+    while (last < segments.size() && (last == first || end <= offset + removed)) {
+      end += segments.get(last).length;
+      last++;
+    }
+
+    rebuild(first, last, start, line);
+  }
+
+  /**
+   * * Re-scans and re-parses the segments in [first, last), which start at the given offset
+   * * and line, and replaces them. While the last declaration or token of the region could run
+   * * on into the text after it, the region grows, by twice as many segments each time so an unclosed brace near the top
+   * * still costs a single pass over the rest of the file.
+   * @param first
+   * @param last
+   * @param start
+   * @param line
+   */
+  private void rebuild(int first, int last, int start, int line) {
+    // * Offsets below are in the new text: everything after the region moved by the edit
+    int tail = 0;
+    for (int i = last; i < segments.size(); i++) {
+      tail += segments.get(i).length;
+    }
+
+    Collector collector;
+    List<Token> tokens;
+    List<Integer> starts;
+    List<Stmt> statements;
+    String region;
+    int grow = 1;
+    for (;;) {
+      region = text.substring(start, text.length() - tail);
+      collector = new Collector();
+      Scanner scanner = new Scanner(region, line, collector);
+      tokens = scanner.scanTokens();
+      starts = new ArrayList<>();
+      collector.starts = starts;
+      Parser parser = new Parser(tokens, collector);
+      statements = parser.parse(starts);
+
+      if (last == segments.size()) break;
+      if (!scanner.unterminated && !parser.lastReachedEnd() && endsCleanly(region, tokens)) break;
+      for (int i = 0; i < grow && last < segments.size(); i++) {
+        tail -= segments.get(last).length;
+        last++;
+      }
+      grow *= 2;
+    }
+
+    List<Segment> rebuilt = split(region, line, tokens, starts, statements, collector);
+    List<Segment> replaced = segments.subList(first, last);
+    for (int i = 0; i < rebuilt.size(); i++) {
+      Segment segment = rebuilt.get(i);
+      Segment old = unchanged(segment, replaced);
+      if (old != null) {
+        rebuilt.set(i, old);
+      } else {
+        resolve(segment);
+      }
+    }
+    replaced.clear();
+    replaced.addAll(rebuilt);
+  }
+
+  /**
+   * * Whether the region can end where it does without the scan of the text after it changing.
+   * * Only whitespace and complete comments may follow its last token: a token right at the end
+   * * could run on into the next segment, and so could a line comment without its newline.
+   * @param region
+   * @param tokens the tokens of the region, ending with EOF
+   * @return boolean
+   */
+  private static boolean endsCleanly(String region, List<Token> tokens) {
+    int i = 0;
+    if (tokens.size() > 1) {
+      Token last = tokens.get(tokens.size() - 2);
+      i = last.offset + last.lexeme.length();
+      if (i == region.length()) return false;
+    }
+    while (i < region.length()) {
+      char c = region.charAt(i);
+      if (c == ' ' || c == '\r' || c == '\t' || c == '\n') {
+        i++;
+      } else if (region.startsWith("//", i)) {
+        int newline = region.indexOf('\n', i);
+        if (newline == -1) return false;
+        i = newline + 1;
+      } else if (region.startsWith("/*", i)) {
+        // * Unterminated ones were caught by the scanner already
+        i = region.indexOf("*/", i + 2) + 2;
+      } else {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Cuts a rebuilt region into one segment per declaration, each running up to the next one.
+   */
+  private List<Segment> split(String region, int line, List<Token> tokens, List<Integer> starts,
+      List<Stmt> statements, Collector collector) {
+    List<Segment> result = new ArrayList<>();
+    if (region.isEmpty()) return result;
+    if (statements.isEmpty()) {
+      result.add(new Segment(region, line, new ArrayList<>(), collector.diagnostics));
+      return result;
+    }
+
+    for (int i = 0; i < statements.size(); i++) {
+      int from = i == 0 ? 0 : tokens.get(starts.get(i)).offset;
+      int to = i + 1 < statements.size() ? tokens.get(starts.get(i + 1)).offset : region.length();
+      int endLine = i + 1 < statements.size() ? tokens.get(starts.get(i + 1)).line : Integer.MAX_VALUE;
+
+      // * Parse errors belong to the declaration being parsed, scan errors go by line
+      List<Diagnostic> own = new ArrayList<>();
+      for (int d = 0; d < collector.diagnostics.size(); d++) {
+        Diagnostic diagnostic = collector.diagnostics.get(d);
+        int owner = collector.owners.get(d);
+        if (owner == -1) {
+          owner = i;
+          if (diagnostic.line >= endLine || (i > 0 && diagnostic.line < line)) continue;
+        }
+        if (owner == i) own.add(diagnostic);
+      }
+
+      Stmt statement = statements.get(i);
+      List<Stmt> body = statement == null ? new ArrayList<>() : Collections.singletonList(statement);
+      Segment segment = new Segment(region.substring(from, to), line, body, own);
+      result.add(segment);
+      line += segment.newlines;
+    }
+    return result;
+  }
+
+  /*
+   * An old segment with exactly the same text keeps its tree and resolution.
+   */
+  private static Segment unchanged(Segment segment, List<Segment> replaced) {
+    for (Segment old : replaced) {
+      if (old.text.equals(segment.text)) {
+        return old;
+      }
+    }
+    return null;
+  }
+
+  private void resolve(Segment segment) {
+    if (!segment.diagnostics.isEmpty()) return;
+
+    Collector collector = new Collector();
+    new Resolver(interpreter, collector).resolve(segment.statements);
+    if (collector.diagnostics.isEmpty()) {
+      new TypeChecker(interpreter, collector).check(segment.statements);
+    }
+    segment.diagnostics.addAll(collector.diagnostics);
+  }
+
+  /**
+   * * The declarations of the whole document, in order, skipping those with syntax errors.
+   * @return statements
+   */
+  List<Stmt> statements() {
+    List<Stmt> statements = new ArrayList<>();
+    for (Segment segment : segments) {
+      statements.addAll(segment.statements);
+    }
+    return statements;
+  }
+
+  /**
+   * * Errors of the whole document, with lines adjusted for edits made above them.
+   * @return diagnostics
+   */
+  List<Diagnostic> diagnostics() {
+    List<Diagnostic> diagnostics = new ArrayList<>();
+    int line = 1;
+    for (Segment segment : segments) {
+      int shift = line - segment.scannedLine;
+      for (Diagnostic diagnostic : segment.diagnostics) {
+        diagnostics.add(shift == 0 ? diagnostic
+            : new Diagnostic(diagnostic.line + shift, diagnostic.where, diagnostic.message));
+      }
+      line += segment.newlines;
+    }
+    return diagnostics;
+  }
+
+  private static int countNewlines(String text) {
+    int count = 0;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,188 @@
+package lox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * A file a script opened, for reading or for writing, never both. Text is UTF-8.
+ *
+ * Reading pulls the file through a fixed size buffer and decodes only as much of it as the
+ * script asked for, so a file of any size is read in constant memory. Lines come back as slices
+ * of the decoded chunk they were found in; only a line that straddles two chunks is copied.
+ */
+class LoxFile {
+  private static final int BYTE_BUFFER_SIZE = 1 << 16;
+  private static final int CHAR_BUFFER_SIZE = 1 << 13;
+  // * Estimated size of an open file, for the memory meter
+  static final long FOOTPRINT = BYTE_BUFFER_SIZE + 3 * CHAR_BUFFER_SIZE;
+
+  final String path;
+  private final FileChannel channel;
+  private boolean closed = false;
+
+  // * Reading: undecoded bytes, the decoded chunk and how far into it the script has read
+  private ByteBuffer bytes;
+  private CharBuffer chars;
+  private CharsetDecoder decoder;
+  private String chunk = "";
+  private int position = 0;
+  private boolean endOfInput = false;
+  private boolean drained = false;
+
+  // * Writing
+  private Writer writer;
+
+  private LoxFile(String path, FileChannel channel) {
+    this.path = path;
+    this.channel = channel;
+  }
+
+  static LoxFile openRead(String path) throws IOException {
+    LoxFile file = new LoxFile(path, FileChannel.open(Path.of(path), StandardOpenOption.READ));
+    file.bytes = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+    file.chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    file.decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    return file;
+  }
+
+  /**
+   * * Opens a file for writing, creating it if needed.
+   * @param path
+   * @param append whether to write after what's there rather than replace it
+   * @return LoxFile
+   */
+  static LoxFile openWrite(String path, boolean append) throws IOException {
+    FileChannel channel = FileChannel.open(Path.of(path), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+        append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+    LoxFile file = new LoxFile(path, channel);
+    file.writer = Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BYTE_BUFFER_SIZE);
+    return file;
+  }
+
+  /**
+   * * The next line without its line break, or null at the end of the file.
+   * @return CharSequence
+   */
+  CharSequence readLine() throws IOException {
+    checkReading();
+    // * The start of a line that runs on into the next chunk
+    StringBuilder partial = null;
+    for (;;) {
+      int newline = chunk.indexOf('\n', position);
+      if (newline != -1) {
+        CharSequence line = StringSlice.of(chunk, position, newline);
+        position = newline + 1;
+        if (partial != null) line = partial.append(line).toString();
+        return withoutReturn(line);
+      }
+
+      if (position < chunk.length()) {
+        if (partial == null) partial = new StringBuilder();
+        partial.append(chunk, position, chunk.length());
+      }
+      position = chunk.length();
+      if (!decodeMore()) {
+        return partial == null ? null : withoutReturn(partial.toString());
+      }
+    }
+  }
+
+  /**
+   * * Up to size more characters, fewer only at the end of the file, or null at the end.
+   * @param size
+   * @return CharSequence
+   */
+  CharSequence read(int size) throws IOException {
+    checkReading();
+    if (position == chunk.length() && !decodeMore()) return null;
+
+    if (chunk.length() - position >= size) {
+      CharSequence piece = StringSlice.of(chunk, position, position + size);
+      position += size;
+      return piece;
+    }
+
+    StringBuilder piece = new StringBuilder(size);
+    do {
+      int take = Math.min(size - piece.length(), chunk.length() - position);
+      piece.append(chunk, position, position + take);
+      position += take;
+    } while (piece.length() < size && (position < chunk.length() || decodeMore()));
+    return piece.toString();
+  }
+
+  void write(CharSequence text) throws IOException {
+    if (closed || writer == null) throw new IOException("not open for writing");
+    writer.append(text);
+  }
+
+  /*
+   * Pushes buffered writes out to the file.
+   */
+  void flush() throws IOException {
+    if (!closed && writer != null) writer.flush();
+  }
+
+  void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    if (writer != null) {
+      writer.close();
+    } else {
+      channel.close();
+    }
+  }
+
+  private void checkReading() throws IOException {
+    if (closed || decoder == null) throw new IOException("not open for reading");
+  }
+
+  /*
+   * Decodes the next chunk of the file, reading more of it as needed. False at the end.
+   */
+  private boolean decodeMore() throws IOException {
+    if (drained) return false;
+
+    chars.clear();
+    while (chars.position() == 0 && !drained) {
+      if (!endOfInput && channel.read(bytes) == -1) endOfInput = true;
+      bytes.flip();
+      decoder.decode(bytes, chars, endOfInput);
+      bytes.compact();
+      if (endOfInput && bytes.position() == 0) {
+        decoder.flush(chars);
+        drained = true;
+      }
+    }
+    chars.flip();
+    if (!chars.hasRemaining()) return false;
+
+    chunk = chars.toString();
+    position = 0;
+    return true;
+  }
+
+  private static CharSequence withoutReturn(CharSequence line) {
+    int length = line.length();
+    if (length > 0 && line.charAt(length - 1) == '\r') {
+      return StringSlice.of(line, 0, length - 1);
+    }
+    return line;
+  }
+
+  @Override
+  public String toString() {
+    return "<file " + path + ">";
+  }
+}
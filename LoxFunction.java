@@ -6,11 +6,13 @@ class LoxFunction implements LoxCallable {
   private final Stmt.Function declaration;
   private final Environment closure;
   private final boolean isInitializer;
+  private final FunctionProfile profile;
 
-  LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+  LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, FunctionProfile profile) {
     this.isInitializer = isInitializer;
     this.closure = closure;
     this.declaration = declaration;
+    this.profile = profile;
   }
 
   /**
@@ -22,7 +24,15 @@ class LoxFunction implements LoxCallable {
   LoxFunction bind(LoxInstance instance) {
     Environment environment = new Environment(closure);
     environment.define("this", instance);
-    return new LoxFunction(declaration, environment, isInitializer);
+    return new LoxFunction(declaration, environment, isInitializer, profile);
+  }
+
+  String name() {
+    return declaration.name.lexeme;
+  }
+
+  Environment closure() {
+    return closure;
   }
 
   @Override
@@ -37,23 +47,89 @@ class LoxFunction implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> arguments) {
-    // * This creates an environment chain that goes from the function’s body out through the environments
-    // * where the function is declared, all the way out to the global scope
-    Environment environment = new Environment(closure);
-    for(int i=0; i<declaration.params.size(); i++) {
-      environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+    // * Pure functions called with plain values answer from their memo cache
+    MemoCache memo = profile.memo;
+    if (memo == null || !MemoCache.isKey(arguments)) {
+      return invoke(interpreter, arguments);
+    }
+
+    Object result = memo.get(arguments);
+    if (result == MemoCache.MISSING) {
+      result = invoke(interpreter, arguments);
+      memo.put(arguments, result);
+    }
+    return result;
+  }
+
+  private Object invoke(Interpreter interpreter, List<Object> arguments) {
+    if (declaration.body instanceof LazyBody) {
+      ((LazyBody) declaration.body).prepare(interpreter, declaration);
+    }
+    if (interpreter.isGenerator(declaration)) {
+      return generate(interpreter, arguments);
     }
 
+    // * This creates an environment chain that goes from the function’s body out through its flat
+    // * closure (only the variables it captured) to the global scope
+    boolean recyclable = interpreter.isRecyclable(declaration);
+    Environment environment = recyclable
+        ? interpreter.acquireEnvironment(closure)
+        : new Environment(closure);
+
     try {
-      interpreter.executeBlock(declaration.body, environment);
+      // * Inside the try: binding a typed parameter can fail, and the frame still goes back
+      for(int i=0; i<declaration.params.size(); i++) {
+        interpreter.define(environment, declaration.params.get(i), arguments.get(i));
+      }
+
+      // * Hot functions run their compiled body, cold ones stay in the tree-walker
+      Compiler.Action compiled = profile.compiled;
+      if (compiled == null) {
+        profile.countInvocation(interpreter);
+        compiled = profile.compiled;
+      }
+
+      if (compiled != null) {
+        interpreter.enter(environment);
+        try {
+          compiled.execute(environment);
+        } finally {
+          interpreter.leave();
+        }
+      } else {
+        interpreter.executeBody(profile, declaration.body, environment);
+      }
     } catch (Return returnValue) {
       // * return this if function is initializer (constructor)
       if (isInitializer) return closure.getAt(0, "this");
-      return returnValue.value;
+      return checkReturn(returnValue.value);
+    } finally {
+      // * Closures only keep the cells they captured, so nothing can still see this frame
+      if (recyclable) interpreter.releaseEnvironment(environment);
     }
 
     if (isInitializer) return closure.getAt(0, "this");
 
-    return null;
+    return checkReturn(null);
+  }
+
+  /*
+   * A generator's call only binds the arguments, the body runs as values are asked for.
+   */
+  private LoxGenerator generate(Interpreter interpreter, List<Object> arguments) {
+    Environment environment = new Environment(closure);
+    for (int i = 0; i < declaration.params.size(); i++) {
+      interpreter.define(environment, declaration.params.get(i), arguments.get(i));
+    }
+    interpreter.allocate(MemoryMeter.ENVIRONMENT + MemoryMeter.ENTRY * arguments.size());
+    return new LoxGenerator(interpreter, declaration, environment);
+  }
+
+  // * A function declared ': num' has to return a number on every path
+  private Object checkReturn(Object value) {
+    if (declaration.returnType != null && !(value instanceof Double)) {
+      throw new RuntimeError(declaration.name, "Expected '" + declaration.name.lexeme + "' to return a number.");
+    }
+    return value;
   }
 }
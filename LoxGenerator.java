@@ -0,0 +1,189 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A running call of a generator, a function with a yield in it. Calling the function only sets
+ * up its parameters; the body runs a piece at a time, each time a script asks for the next value,
+ * up to the next yield.
+ *
+ * Suspending needs no thread. The tree-walker can't stop in the middle of a statement, so the
+ * statements a yield is nested in (the resolver marks them) are instead run here as a state
+ * machine: an explicit stack of the blocks and loops that are in progress, each with its
+ * environment and how far into it execution got. Everything else, including whole loops that
+ * don't yield, is handed to the interpreter and runs at full speed.
+ */
+class LoxGenerator {
+  private enum State {
+    SUSPENDED,
+    RUNNING,
+    DONE;
+  }
+
+  /*
+   * A block or loop that is in progress. A block resumes at its next statement, a loop at its
+   * condition.
+   */
+  private static class Frame {
+    final Stmt stmt;
+    final Environment environment;
+    int next = 0;
+
+    Frame(Stmt stmt, Environment environment) {
+      this.stmt = stmt;
+      this.environment = environment;
+    }
+  }
+
+  private final Interpreter interpreter;
+  private final Token name;
+  private final List<Frame> frames = new ArrayList<>();
+  private State state = State.SUSPENDED;
+  // * The value the last step stopped at, until next hands it out
+  private boolean hasValue = false;
+  private Object value = null;
+
+  /**
+   * * Starts a suspended call at the top of the body.
+   * @param interpreter
+   * @param declaration
+   * @param environment holding the arguments
+   */
+  LoxGenerator(Interpreter interpreter, Stmt.Function declaration, Environment environment) {
+    this.interpreter = interpreter;
+    this.name = declaration.name;
+    // * The body runs in the call's environment, like the statements of a block would
+    frames.add(new Frame(new Stmt.Block(declaration.body), environment));
+  }
+
+  /**
+   * * Runs up to the next yield, unless a value is already waiting.
+   * @return whether there is another value
+   */
+  boolean hasNext() {
+    if (!hasValue && state != State.DONE) {
+      resume();
+    }
+    return hasValue;
+  }
+
+  Object next() {
+    if (!hasNext()) {
+      throw new RuntimeError("Generator '" + name.lexeme + "' has no more values.");
+    }
+    hasValue = false;
+    Object result = value;
+    value = null;
+    return result;
+  }
+
+  /*
+   * The environments the suspended body still needs, for the memory meter.
+   */
+  List<Environment> environments() {
+    List<Environment> environments = new ArrayList<>();
+    for (Frame frame : frames) {
+      environments.add(frame.environment);
+    }
+    return environments;
+  }
+
+  private void resume() {
+    if (state == State.RUNNING) {
+      throw new RuntimeError("Generator '" + name.lexeme + "' is already running.");
+    }
+    state = State.RUNNING;
+    try {
+      if (run()) {
+        state = State.SUSPENDED;
+        return;
+      }
+    } catch (Return finished) {
+      // * The resolver rejects return values in generators, so this is a plain return
+    } catch (RuntimeError error) {
+      error.unwound(name.lexeme + "()");
+      frames.clear();
+      state = State.DONE;
+      throw error;
+    } catch (RuntimeException error) {
+      frames.clear();
+      state = State.DONE;
+      throw error;
+    }
+    frames.clear();
+    state = State.DONE;
+  }
+
+  /*
+   * Steps through the frames until a statement yields or the body is done.
+   */
+  private boolean run() {
+    while (!frames.isEmpty()) {
+      Frame frame = frames.get(frames.size() - 1);
+      if (frame.stmt instanceof Stmt.Block) {
+        List<Stmt> statements = ((Stmt.Block) frame.stmt).statements;
+        if (frame.next == statements.size()) {
+          frames.remove(frames.size() - 1);
+        } else if (step(statements.get(frame.next++), frame.environment)) {
+          return true;
+        }
+      } else {
+        Stmt.While loop = (Stmt.While) frame.stmt;
+        if (frame.next++ > 0) interpreter.charge(loop.keyword);
+        if (!Interpreter.isTruthy(interpreter.evaluateIn(loop.condtion, frame.environment))) {
+          frames.remove(frames.size() - 1);
+        } else if (step(loop.body, frame.environment)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * * Runs a statement of the body, or starts it if it may yield.
+   * @param stmt
+   * @param environment
+   * @return whether it yielded
+   */
+  private boolean step(Stmt stmt, Environment environment) {
+    if (stmt instanceof Breakpoint) {
+      ((Breakpoint) stmt).hit(environment);
+      stmt = ((Breakpoint) stmt).statement;
+    }
+    Coverage coverage = interpreter.coverage();
+    if (coverage != null && (stmt instanceof Stmt.Yield || interpreter.isSuspending(stmt))) {
+      // * The interpreter counts the statements it runs, these ones run here
+      coverage.count(stmt);
+    }
+    if (stmt instanceof Stmt.Yield) {
+      Expr expression = ((Stmt.Yield) stmt).value;
+      value = expression == null ? null : interpreter.evaluateIn(expression, environment);
+      hasValue = true;
+      return true;
+    }
+    if (!interpreter.isSuspending(stmt)) {
+      interpreter.executeIn(stmt, environment);
+      return false;
+    }
+
+    if (stmt instanceof Stmt.Block) {
+      frames.add(new Frame(stmt, new Environment(environment)));
+    } else if (stmt instanceof Stmt.While) {
+      frames.add(new Frame(stmt, environment));
+    } else {
+      Stmt.If branch = (Stmt.If) stmt;
+      boolean truthy = Interpreter.isTruthy(interpreter.evaluateIn(branch.condition, environment));
+      if (coverage != null) coverage.count(branch, truthy);
+      Stmt taken = truthy ? branch.thenBranch : branch.elseBranch;
+      if (taken != null) return step(taken, environment);
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "<generator " + name.lexeme + ">";
+  }
+}
@@ -1,5 +1,6 @@
 package lox;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -9,6 +10,7 @@ class LoxInstance {
 
   LoxInstance(LoxClass klass) {
     this.klass = klass;
+    LoxMetrics.metrics.instanceAllocations.increment();
   }
   
   @Override
@@ -33,10 +35,20 @@ class LoxInstance {
   }
 
   /*
-   * Set the field of instance
+   * Set the field of instance, saying whether it's a new one
    */
-  void set(Token name, Object value) {
+  boolean set(Token name, Object value) {
+    int count = fields.size();
     fields.put(name.lexeme, value);
+    return fields.size() > count;
+  }
+
+  LoxClass klass() {
+    return klass;
+  }
+
+  Collection<Object> fields() {
+    return fields.values();
   }
 
 }
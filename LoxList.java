@@ -0,0 +1,31 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A growable list of Lox values, what split returns and join takes. Scripts work with it
+ * through the list natives.
+ */
+class LoxList {
+  final List<Object> elements;
+
+  LoxList() {
+    this.elements = new ArrayList<>();
+  }
+
+  LoxList(List<Object> elements) {
+    this.elements = elements;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder("[");
+    for (int i = 0; i < elements.size(); i++) {
+      if (i > 0) text.append(", ");
+      Object element = elements.get(i);
+      text.append(element == this ? "[...]" : Interpreter.stringify(element));
+    }
+    return text.append("]").toString();
+  }
+}
@@ -0,0 +1,114 @@
+package lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * Live counters for every interpreter running in this JVM, exposed over JMX as
+ * "lox:type=Interpreter". The counters are striped so that interpreters running on
+ * different threads don't contend on a single cache line.
+ */
+class LoxMetrics implements LoxMetricsMBean {
+  static final LoxMetrics metrics = new LoxMetrics();
+
+  final LongAdder statementsExecuted = new LongAdder();
+  final LongAdder functionCalls = new LongAdder();
+  final LongAdder instanceAllocations = new LongAdder();
+  final LongAdder environmentAllocations = new LongAdder();
+  final LongAdder runtimeErrors = new LongAdder();
+  final LongAccumulator maxCallDepth = new LongAccumulator(Math::max, 0);
+
+  // * Time spent in each phase of the pipeline
+  final LongAdder scanNanos = new LongAdder();
+  final LongAdder parseNanos = new LongAdder();
+  final LongAdder resolveNanos = new LongAdder();
+  final LongAdder executeNanos = new LongAdder();
+
+  private boolean registered = false;
+
+  private LoxMetrics() {
+  }
+
+  /**
+   * * Registers the metrics with the platform MBean server, once per JVM.
+   * * Failing to register only costs visibility, so it never stops a script.
+   */
+  synchronized void register() {
+    if (registered) return;
+    registered = true;
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("lox:type=Interpreter"));
+    } catch (JMException e) {
+      System.err.println("Could not register interpreter metrics: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public long getStatementsExecuted() {
+    return statementsExecuted.sum();
+  }
+
+  @Override
+  public long getFunctionCalls() {
+    return functionCalls.sum();
+  }
+
+  @Override
+  public long getInstanceAllocations() {
+    return instanceAllocations.sum();
+  }
+
+  @Override
+  public long getEnvironmentAllocations() {
+    return environmentAllocations.sum();
+  }
+
+  @Override
+  public long getRuntimeErrors() {
+    return runtimeErrors.sum();
+  }
+
+  @Override
+  public long getMaxCallDepth() {
+    return maxCallDepth.get();
+  }
+
+  @Override
+  public long getScanNanos() {
+    return scanNanos.sum();
+  }
+
+  @Override
+  public long getParseNanos() {
+    return parseNanos.sum();
+  }
+
+  @Override
+  public long getResolveNanos() {
+    return resolveNanos.sum();
+  }
+
+  @Override
+  public long getExecuteNanos() {
+    return executeNanos.sum();
+  }
+
+  @Override
+  public void reset() {
+    statementsExecuted.reset();
+    functionCalls.reset();
+    instanceAllocations.reset();
+    environmentAllocations.reset();
+    runtimeErrors.reset();
+    maxCallDepth.reset();
+    scanNanos.reset();
+    parseNanos.reset();
+    resolveNanos.reset();
+    executeNanos.reset();
+  }
+}
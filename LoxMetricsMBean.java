@@ -0,0 +1,29 @@
+package lox;
+
+/*
+ * Management interface of the interpreter metrics. JMX only introspects public interfaces,
+ * which is why this one is public when everything else in the package isn't.
+ */
+public interface LoxMetricsMBean {
+  long getStatementsExecuted();
+
+  long getFunctionCalls();
+
+  long getInstanceAllocations();
+
+  long getEnvironmentAllocations();
+
+  long getRuntimeErrors();
+
+  long getMaxCallDepth();
+
+  long getScanNanos();
+
+  long getParseNanos();
+
+  long getResolveNanos();
+
+  long getExecuteNanos();
+
+  void reset();
+}
@@ -0,0 +1,46 @@
+package lox;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Results of a pure function keyed on its argument list, evicting the least recently used
+ * entry once it holds CAPACITY of them. Only numbers, strings, booleans and nil make keys,
+ * since those compare by value and can't change after the call.
+ */
+class MemoCache {
+  static final int CAPACITY = 4096;
+  // * Returned by get for arguments that aren't cached, as nil is a valid result
+  static final Object MISSING = new Object();
+
+  private final Map<List<Object>, Object> entries = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+      return size() > CAPACITY;
+    }
+  };
+
+  /**
+   * * Checks whether a call with these arguments may be looked up in the cache.
+   * @param arguments
+   * @return boolean
+   */
+  static boolean isKey(List<Object> arguments) {
+    for (Object argument : arguments) {
+      if (argument != null && !(argument instanceof Double)
+          && !(argument instanceof String) && !(argument instanceof Boolean)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  Object get(List<Object> arguments) {
+    return entries.getOrDefault(arguments, MISSING);
+  }
+
+  void put(List<Object> arguments, Object result) {
+    entries.put(arguments, result);
+  }
+}
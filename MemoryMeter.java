@@ -0,0 +1,185 @@
+package lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/*
+ * Keeps track of how much memory a single run of a script holds on to, so a script that keeps
+ * accumulating objects fails with a runtime error instead of exhausting the heap it shares with
+ * everything else in the process.
+ *
+ * The objects a script can pile up (instances and their fields, closures, strings and lists) are
+ * charged with estimated sizes as they're allocated. Most of them soon become garbage, so running past
+ * the limit on allocations alone fails nothing: it triggers a walk over everything reachable from
+ * the globals and the frames on the stack, and only if that is over the limit too does the run
+ * fail. Like a garbage collector, the walks are spaced in proportion to what was found live, so
+ * their cost stays proportional to the allocation that triggered them.
+ */
+class MemoryMeter {
+  // * Estimated sizes in bytes, for a 64 bit JVM with compressed pointers
+  static final long INSTANCE = 64;
+  static final long CLOSURE = 32;
+  static final long ENVIRONMENT = 64;
+  // * A hash map entry and its slot in the table, for fields, bindings and methods
+  static final long ENTRY = 48;
+  static final long SLICE = 32;
+  static final long LIST = 40;
+  // * A reference in a list, with room for the list to grow
+  static final long ELEMENT = 8;
+  private static final long CLASS = 64;
+  private static final long BOX = 16;
+  private static final long STRING = 40;
+
+  // * However little is live, walks are at least this much allocation apart
+  private static final long MIN_INTERVAL = 1 << 20;
+
+  private final long limit;
+  // * Environments of the blocks and calls that are running, innermost last
+  private final List<Environment> frames = new ArrayList<>();
+  private long allocated = 0;
+  private long interval;
+  private long peak = 0;
+
+  /**
+   * * A limit of 0 only measures, for the peak memory report.
+   * @param limit in bytes
+   */
+  MemoryMeter(long limit) {
+    this.limit = limit;
+    this.interval = nextInterval(0);
+  }
+
+  static long sizeOf(String string) {
+    return STRING + string.length();
+  }
+
+  void allocate(long bytes) {
+    allocated += bytes;
+  }
+
+  /*
+   * Whether enough was allocated since the last walk to walk again.
+   */
+  boolean due() {
+    return allocated >= interval;
+  }
+
+  void enter(Environment frame) {
+    frames.add(frame);
+  }
+
+  void leave() {
+    frames.remove(frames.size() - 1);
+  }
+
+  /**
+   * * Measures what the run keeps alive and fails it if that is over the limit.
+   * @param token where the run is, for the error
+   * @param globals
+   * @param current the innermost environment of the tree-walker
+   */
+  void check(Token token, Environment globals, Environment current) {
+    long live = measure(globals, current);
+    if (limit > 0 && live > limit) {
+      throw new RuntimeError(token, "Memory limit exceeded (" + live + " bytes live, limit is "
+          + limit + ").");
+    }
+  }
+
+  /**
+   * * The largest amount found live by any walk of this run.
+   * @return bytes
+   */
+  long peak() {
+    return peak;
+  }
+
+  /**
+   * * Walks the object graph from the roots and adds up the estimated size of everything on it.
+   * @param globals
+   * @param current
+   * @return bytes live
+   */
+  long measure(Environment globals, Environment current) {
+    IdentityHashMap<Object, Boolean> seen = new IdentityHashMap<>();
+    ArrayDeque<Object> pending = new ArrayDeque<>();
+    pending.push(globals);
+    pending.push(current);
+    for (Environment frame : frames) {
+      pending.push(frame);
+    }
+
+    long live = 0;
+    while (!pending.isEmpty()) {
+      Object object = pending.pop();
+      if (seen.put(object, Boolean.TRUE) != null) continue;
+
+      if (object instanceof Environment) {
+        Environment environment = (Environment) object;
+        live += ENVIRONMENT + ENTRY * environment.bindings().size();
+        pushAll(pending, environment.bindings());
+        if (environment.enclosing != null) pending.push(environment.enclosing);
+      } else if (object instanceof LoxInstance) {
+        LoxInstance instance = (LoxInstance) object;
+        live += INSTANCE + ENTRY * instance.fields().size();
+        pushAll(pending, instance.fields());
+        pending.push(instance.klass());
+      } else if (object instanceof LoxFunction) {
+        live += CLOSURE;
+        pending.push(((LoxFunction) object).closure());
+      } else if (object instanceof LoxClass) {
+        LoxClass klass = (LoxClass) object;
+        live += CLASS + ENTRY * klass.methods().size();
+        pushAll(pending, klass.methods());
+        if (klass.superclass != null) pending.push(klass.superclass);
+      } else if (object instanceof Cell) {
+        live += BOX;
+        Object value = ((Cell) object).value;
+        if (value != null) pending.push(value);
+      } else if (object instanceof StringSlice) {
+        live += SLICE;
+        pending.push(((StringSlice) object).source());
+      } else if (object instanceof LoxList) {
+        List<Object> elements = ((LoxList) object).elements;
+        live += LIST + ELEMENT * elements.size();
+        pushAll(pending, elements);
+      } else if (object instanceof LoxGenerator) {
+        live += CLOSURE;
+        pushAll(pending, ((LoxGenerator) object).environments());
+      } else if (object instanceof LoxFile) {
+        live += LoxFile.FOOTPRINT;
+      } else if (object instanceof String) {
+        live += sizeOf((String) object);
+      } else if (object instanceof Double || object instanceof NumberCell) {
+        live += BOX;
+      }
+    }
+
+    peak = Math.max(peak, live);
+    allocated = 0;
+    interval = nextInterval(live);
+    return live;
+  }
+
+  // * nil is null, which the deque doesn't take and which takes no room anyway
+  private static void pushAll(ArrayDeque<Object> pending, Collection<?> values) {
+    for (Object value : values) {
+      if (value != null) pending.push(value);
+    }
+  }
+
+  /*
+   * With a limit, the next walk comes early enough that the run can't overshoot it by more
+   * than an eighth.
+   */
+  private long nextInterval(long live) {
+    long interval = Math.max(MIN_INTERVAL, live / 2);
+    if (limit > 0) {
+      interval = Math.min(interval, Math.max(limit - live, limit / 8));
+    }
+    return interval;
+  }
+}
@@ -0,0 +1,274 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The native string, list and file library, defined as globals of every interpreter.
+ *
+ * substring and split hand out slices of the string they were given rather than copies, so
+ * taking a line apart allocates a few small views instead of copying its text around. Every
+ * native accepts slices wherever it takes a string.
+ */
+class Natives {
+  /*
+   * The body of a native function, called once its arguments were counted.
+   */
+  interface Body {
+    Object call(Interpreter interpreter, List<Object> arguments);
+  }
+
+  static class Native implements LoxCallable {
+    // * For tracebacks; printing one still shows <native fn>
+    final String name;
+    private final int arity;
+    private final Body body;
+
+    Native(String name, int arity, Body body) {
+      this.name = name;
+      this.arity = arity;
+      this.body = body;
+    }
+
+    @Override
+    public int arity() {
+      return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      return body.call(interpreter, arguments);
+    }
+
+    @Override
+    public String toString() {
+      return "<native fn>";
+    }
+  }
+
+  private Natives() {
+  }
+
+  static void define(Environment globals, String name, int arity, Body body) {
+    globals.defineGlobal(name, new Native(name, arity, body));
+  }
+
+  static void defineAll(Environment globals) {
+    define(globals, "length", 1, (interpreter, arguments) -> {
+      Object value = arguments.get(0);
+      if (value instanceof CharSequence) return (double) ((CharSequence) value).length();
+      if (value instanceof LoxList) return (double) ((LoxList) value).elements.size();
+      throw new RuntimeError("Can only take the length of a string or a list.");
+    });
+
+    define(globals, "substring", 3, (interpreter, arguments) -> {
+      CharSequence text = text(arguments.get(0), "substring");
+      int start = index(arguments.get(1), "substring");
+      int end = index(arguments.get(2), "substring");
+      if (start > end || end > text.length()) {
+        throw new RuntimeError("Substring range out of bounds.");
+      }
+      interpreter.allocate(MemoryMeter.SLICE);
+      return StringSlice.of(text, start, end);
+    });
+
+    define(globals, "indexOf", 2, (interpreter, arguments) -> {
+      CharSequence text = text(arguments.get(0), "indexOf");
+      CharSequence needle = text(arguments.get(1), "indexOf");
+      return (double) StringSlice.indexOf(text, needle, 0);
+    });
+
+    define(globals, "startsWith", 2, (interpreter, arguments) -> {
+      CharSequence text = text(arguments.get(0), "startsWith");
+      CharSequence prefix = text(arguments.get(1), "startsWith");
+      if (prefix.length() > text.length()) return false;
+      for (int i = 0; i < prefix.length(); i++) {
+        if (text.charAt(i) != prefix.charAt(i)) return false;
+      }
+      return true;
+    });
+
+    define(globals, "split", 2, (interpreter, arguments) -> {
+      CharSequence text = text(arguments.get(0), "split");
+      CharSequence separator = text(arguments.get(1), "split");
+      if (separator.length() == 0) {
+        throw new RuntimeError("Can't split on an empty separator.");
+      }
+
+      List<Object> parts = new ArrayList<>();
+      int start = 0;
+      for (int at; (at = StringSlice.indexOf(text, separator, start)) != -1; start = at + separator.length()) {
+        parts.add(StringSlice.of(text, start, at));
+      }
+      parts.add(StringSlice.of(text, start, text.length()));
+      interpreter.allocate(MemoryMeter.LIST + (MemoryMeter.ELEMENT + MemoryMeter.SLICE) * parts.size());
+      return new LoxList(parts);
+    });
+
+    define(globals, "join", 2, (interpreter, arguments) -> {
+      List<Object> parts = list(arguments.get(0), "join").elements;
+      CharSequence separator = text(arguments.get(1), "join");
+      StringBuilder joined = new StringBuilder();
+      for (int i = 0; i < parts.size(); i++) {
+        if (i > 0) joined.append(separator);
+        Object part = parts.get(i);
+        if (part instanceof CharSequence) {
+          joined.append((CharSequence) part);
+        } else {
+          joined.append(Interpreter.stringify(part));
+        }
+      }
+      String result = joined.toString();
+      interpreter.allocate(MemoryMeter.sizeOf(result));
+      return Interner.intern(result);
+    });
+
+    define(globals, "charCode", 2, (interpreter, arguments) -> {
+      CharSequence text = text(arguments.get(0), "charCode");
+      int index = index(arguments.get(1), "charCode");
+      if (index >= text.length()) {
+        throw new RuntimeError("String index out of bounds.");
+      }
+      return (double) text.charAt(index);
+    });
+
+    define(globals, "list", 0, (interpreter, arguments) -> {
+      interpreter.allocate(MemoryMeter.LIST);
+      return new LoxList();
+    });
+
+    define(globals, "append", 2, (interpreter, arguments) -> {
+      list(arguments.get(0), "append").elements.add(arguments.get(1));
+      interpreter.allocate(MemoryMeter.ELEMENT);
+      return null;
+    });
+
+    define(globals, "hasNext", 1, (interpreter, arguments) -> {
+      return generator(arguments.get(0), "hasNext").hasNext();
+    });
+
+    define(globals, "next", 1, (interpreter, arguments) -> {
+      return generator(arguments.get(0), "next").next();
+    });
+
+    define(globals, "get", 2, (interpreter, arguments) -> {
+      List<Object> elements = list(arguments.get(0), "get").elements;
+      int index = index(arguments.get(1), "get");
+      if (index >= elements.size()) {
+        throw new RuntimeError("List index out of bounds.");
+      }
+      return elements.get(index);
+    });
+  }
+
+  /*
+   * Files are opened with a mode like C's fopen: "r" reads, "w" replaces and "a" appends.
+   * The interpreter flushes whatever was written at the end of every run.
+   */
+  static void defineFiles(Environment globals) {
+    define(globals, "open", 2, (interpreter, arguments) -> {
+      String path = text(arguments.get(0), "open").toString();
+      String mode = text(arguments.get(1), "open").toString();
+      if (!mode.equals("r") && !mode.equals("w") && !mode.equals("a")) {
+        throw new RuntimeError("File mode must be \"r\", \"w\" or \"a\".");
+      }
+
+      LoxFile file;
+      try {
+        file = mode.equals("r") ? LoxFile.openRead(path) : LoxFile.openWrite(path, mode.equals("a"));
+      } catch (IOException | InvalidPathException e) {
+        throw new RuntimeError("Can't open '" + path + "': " + describe(e) + ".");
+      }
+      interpreter.opened(file);
+      interpreter.allocate(LoxFile.FOOTPRINT);
+      return file;
+    });
+
+    define(globals, "readLine", 1, (interpreter, arguments) -> {
+      LoxFile file = file(arguments.get(0), "readLine");
+      try {
+        CharSequence line = file.readLine();
+        if (line == null) return null;
+        interpreter.allocate(MemoryMeter.SLICE + line.length());
+        return Interner.intern(line);
+      } catch (IOException e) {
+        throw new RuntimeError("Can't read '" + file.path + "': " + describe(e) + ".");
+      }
+    });
+
+    define(globals, "read", 2, (interpreter, arguments) -> {
+      LoxFile file = file(arguments.get(0), "read");
+      int size = index(arguments.get(1), "read");
+      try {
+        CharSequence piece = size == 0 ? "" : file.read(size);
+        if (piece == null) return null;
+        interpreter.allocate(MemoryMeter.SLICE + piece.length());
+        return Interner.intern(piece);
+      } catch (IOException e) {
+        throw new RuntimeError("Can't read '" + file.path + "': " + describe(e) + ".");
+      }
+    });
+
+    define(globals, "write", 2, (interpreter, arguments) -> {
+      LoxFile file = file(arguments.get(0), "write");
+      Object value = arguments.get(1);
+      try {
+        file.write(value instanceof CharSequence ? (CharSequence) value : Interpreter.stringify(value));
+      } catch (IOException e) {
+        throw new RuntimeError("Can't write '" + file.path + "': " + describe(e) + ".");
+      }
+      return null;
+    });
+
+    define(globals, "close", 1, (interpreter, arguments) -> {
+      LoxFile file = file(arguments.get(0), "close");
+      try {
+        interpreter.closed(file);
+        file.close();
+      } catch (IOException e) {
+        throw new RuntimeError("Can't close '" + file.path + "': " + describe(e) + ".");
+      }
+      return null;
+    });
+  }
+
+  private static String describe(Exception e) {
+    if (e instanceof NoSuchFileException) return "no such file";
+    if (e instanceof AccessDeniedException) return "access denied";
+    return e.getMessage();
+  }
+
+  private static LoxFile file(Object value, String function) {
+    if (value instanceof LoxFile) return (LoxFile) value;
+    throw new RuntimeError("Expected a file in '" + function + "'.");
+  }
+
+  private static CharSequence text(Object value, String function) {
+    if (value instanceof CharSequence) return (CharSequence) value;
+    throw new RuntimeError("Expected a string in '" + function + "'.");
+  }
+
+  private static LoxGenerator generator(Object value, String function) {
+    if (value instanceof LoxGenerator) return (LoxGenerator) value;
+    throw new RuntimeError("Expected a generator in '" + function + "'.");
+  }
+
+  private static LoxList list(Object value, String function) {
+    if (value instanceof LoxList) return (LoxList) value;
+    throw new RuntimeError("Expected a list in '" + function + "'.");
+  }
+
+  private static int index(Object value, String function) {
+    if (value instanceof Double) {
+      double number = (double) value;
+      if (number >= 0 && number == Math.floor(number) && number <= Integer.MAX_VALUE) {
+        return (int) number;
+      }
+    }
+    throw new RuntimeError("Expected an index in '" + function + "'.");
+  }
+}
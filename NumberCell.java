@@ -0,0 +1,14 @@
+package lox;
+
+/*
+ * Holds a local or parameter declared ': num'. The type checker guarantees it only ever holds a
+ * number, so compiled code reads and writes the primitive directly. Like a Cell, a closure
+ * shares it instead of copying the value.
+ */
+class NumberCell {
+  double value;
+
+  NumberCell(double value) {
+    this.value = value;
+  }
+}
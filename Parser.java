@@ -3,6 +3,7 @@ package lox;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Map;
 import static lox.TokenType.*;
 
 class Parser {
@@ -11,10 +12,26 @@ class Parser {
   }
 
   private final List<Token> tokens;
+  private final ErrorReporter reporter;
   private int current = 0;
+  private boolean annotated = false;
+  // * Whether top level function bodies are only brace matched, see LazyBody
+  private boolean lazy = false;
+  // * Whether the declaration being parsed is directly at the top level
+  private boolean topLevel = false;
+  // * When set, the line every declaration starts on, for the debugger
+  private Map<Stmt, Integer> lines = null;
+  // * Whether the parser looked at the end of the tokens, and whether the last declaration did
+  private boolean lookedAtEnd = false;
+  private boolean lastReachedEnd = false;
 
   Parser(List<Token> tokens) {
+    this(tokens, Lox.reporter);
+  }
+
+  Parser(List<Token> tokens, ErrorReporter reporter) {
     this.tokens = tokens;
+    this.reporter = reporter;
   }
 
   /**
@@ -25,12 +42,41 @@ class Parser {
   List<Stmt> parse() {
     List<Stmt> statements = new ArrayList<>();
     while (!isAtEnd()) {
+      topLevel = true;
+      statements.add(declaration());
+    }
+
+    return statements;
+  }
+
+  /**
+   * * Same as parse, but also records the index of the first token of every declaration,
+   * * so that callers can map each declaration back to its text.
+   * * A declaration with a syntax error comes back as null.
+   * @param starts
+   * @return statements
+   */
+  List<Stmt> parse(List<Integer> starts) {
+    List<Stmt> statements = new ArrayList<>();
+    while (!isAtEnd()) {
+      starts.add(current);
+      topLevel = true;
+      lookedAtEnd = false;
       statements.add(declaration());
+      lastReachedEnd = lookedAtEnd;
     }
 
     return statements;
   }
 
+  /*
+   * Whether parsing the last declaration looked at the end of the tokens, so that more tokens
+   * after them could have changed how it parsed. Only kept by parse(starts).
+   */
+  boolean lastReachedEnd() {
+    return lastReachedEnd;
+  }
+
   private Expr expression() {
     // return equality();
     return assignment();
@@ -41,11 +87,32 @@ class Parser {
    * @return statement
    */
   private Stmt declaration() {
+    if (lines == null) return declaration(topLevel);
+
+    int line = peek().line;
+    return record(declaration(topLevel), line);
+  }
+
+  /*
+   * The body of an if, while or for, which records its line like a declaration would.
+   */
+  private Stmt body() {
+    int line = peek().line;
+    return record(statement(), line);
+  }
+
+  private Stmt record(Stmt stmt, int line) {
+    if (lines != null && stmt != null) lines.put(stmt, line);
+    return stmt;
+  }
+
+  private Stmt declaration(boolean top) {
+    topLevel = false;
     try {
       if (match(CLASS))
         return classDeclaration();
       if (match(FUN))
-        return function("function");
+        return function("function", top && lazy);
       if (match(VAR))
         return varDeclaration();
       return statement();
@@ -61,6 +128,14 @@ class Parser {
    */
   private Stmt classDeclaration() {
     Token name = consume(IDENTIFIER, "Expect class name.");
+
+    // * class B < A
+    Expr.Variable superclass = null;
+    if (match(LESS)) {
+      consume(IDENTIFIER, "Expect superclass name.");
+      superclass = new Expr.Variable(previous());
+    }
+
     consume(LEFT_BRACE, "Expect '{' before class body.");
 
     List<Stmt.Function> methods = new ArrayList<>();
@@ -69,7 +144,7 @@ class Parser {
     }
 
     consume(RIGHT_BRACE, "Expect '}' after class body.");
-    return new Stmt.Class(name, methods);
+    return new Stmt.Class(name, superclass, methods);
   }
 
   /**
@@ -90,35 +165,105 @@ class Parser {
       return returnStatement();
     if (match(WHILE))
       return whileStatement();
+    if (match(YIELD))
+      return yieldStatement();
     if (match(LEFT_BRACE))
       return new Stmt.Block(block());
 
     return expressionStatement();
   }
 
+  /*
+   * Makes the bodies of top level functions parse on their first call instead of now.
+   */
+  void deferBodies(boolean lazy) {
+    this.lazy = lazy;
+  }
+
+  /*
+   * Records the line every statement starts on into the map.
+   */
+  void recordLines(Map<Stmt, Integer> lines) {
+    this.lines = lines;
+  }
+
   private Stmt.Function function(String kind) {
+    return function(kind, false);
+  }
+
+  private Stmt.Function function(String kind, boolean deferBody) {
     Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
 
     consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
 
     // * This is like the code for handling arguments in a call
     List<Token> parameters = new ArrayList<>();
+    List<Token> types = new ArrayList<>();
     if (!check(RIGHT_PAREN)) {
       do {
         if (parameters.size() >= 255) {
           error(peek(), "Can't have more than 255 parameters.");
         }
         parameters.add(consume(IDENTIFIER, "Expect parameter name."));
+        types.add(typeAnnotation());
       } while (match(COMMA));
     }
 
     consume(RIGHT_PAREN, "Expect ')' after parameters.");
+    Token returnType = typeAnnotation();
     consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+    if (deferBody) {
+      boolean typed = returnType != null;
+      for (Token type : types) {
+        typed |= type != null;
+      }
+      return new Stmt.Function(name, parameters, types, returnType, skipBody(typed));
+    }
     List<Stmt> body = block();
-    return new Stmt.Function(name, parameters, body);
+    return new Stmt.Function(name, parameters, types, returnType, body);
+  }
+
+  /**
+   * * Finds the closing brace of a body whose opening brace was just consumed, leaving its
+   * * tokens to be parsed later.
+   * @param typed whether the signature has type annotations
+   * @return LazyBody
+   */
+  private LazyBody skipBody(boolean typed) {
+    int start = current;
+    int depth = 1;
+    while (!isAtEnd()) {
+      Token token = advance();
+      if (token.type == LEFT_BRACE) {
+        depth++;
+      } else if (token.type == RIGHT_BRACE && --depth == 0) {
+        return new LazyBody(tokens.subList(start, current - 1), token, typed);
+      } else if (token.type == COLON) {
+        typed = true;
+      }
+    }
+    throw error(peek(), "Expect '}' after block.");
+  }
+
+  /**
+   * * Parses an optional ": type" after a variable, parameter or parameter list.
+   * @return the type name, or null when there is no annotation
+   */
+  private Token typeAnnotation() {
+    if (!match(COLON)) return null;
+    annotated = true;
+    return consume(IDENTIFIER, "Expect type name after ':'.");
+  }
+
+  /*
+   * Whether the program used any type annotation, so it needs the type checker.
+   */
+  boolean hasAnnotations() {
+    return annotated;
   }
 
   private Stmt forStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
     Stmt initializer;
@@ -142,10 +287,12 @@ class Parser {
     }
     consume(RIGHT_PAREN, "Expect ')' after for clauses.");
 
-    Stmt body = statement();
+    Stmt body = body();
 
+    // * The clauses of the loop belong to the line of the for
+    record(initializer, keyword.line);
     if (increment != null) {
-      body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
+      body = new Stmt.Block(Arrays.asList(body, record(new Stmt.Expression(increment), keyword.line)));
     }
 
     // * If no condition then make it an infinite loop
@@ -153,7 +300,7 @@ class Parser {
       condition = new Expr.Literal(true);
 
     // * Desugaring for loops
-    body = new Stmt.While(condition, body);
+    body = record(new Stmt.While(keyword, condition, body), keyword.line);
 
     if (initializer != null) {
       body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -172,10 +319,10 @@ class Parser {
     Expr condition = expression();
     consume(RIGHT_PAREN, "Expect ')' after if condition.");
 
-    Stmt thenBranch = statement();
+    Stmt thenBranch = body();
     Stmt elseBranch = null;
     if (match(ELSE)) {
-      elseBranch = statement();
+      elseBranch = body();
     }
 
     return new Stmt.If(condition, thenBranch, elseBranch);
@@ -209,6 +356,17 @@ class Parser {
     return new Stmt.Return(keyword, value);
   }
 
+  private Stmt yieldStatement() {
+    Token keyword = previous();
+    Expr value = null;
+    if (!check(SEMICOLON)) {
+      value = expression();
+    }
+
+    consume(SEMICOLON, "Expect ';' after yield value.");
+    return new Stmt.Yield(keyword, value);
+  }
+
   /**
    * * Parses Var Statements
    * 
@@ -216,6 +374,7 @@ class Parser {
    */
   private Stmt varDeclaration() {
     Token name = consume(IDENTIFIER, "Expect variable name.");
+    Token type = typeAnnotation();
 
     Expr initializer = null;
     if (match(EQUAL)) {
@@ -223,7 +382,7 @@ class Parser {
     }
 
     consume(SEMICOLON, "Expect ';' after variable declaration.");
-    return new Stmt.Var(name, initializer);
+    return new Stmt.Var(name, type, initializer);
   }
 
   /**
@@ -232,13 +391,14 @@ class Parser {
    * @return Instance of Stmt.While class
    */
   private Stmt whileStatement() {
+    Token keyword = previous();
     consume(LEFT_PAREN, "Expect '(' after 'while'.");
     Expr condition = expression();
     consume(RIGHT_PAREN, "Expect ')' after condition.");
 
-    Stmt body = statement();
+    Stmt body = body();
 
-    return new Stmt.While(condition, body);
+    return new Stmt.While(keyword, condition, body);
   }
 
   /**
@@ -443,6 +603,13 @@ class Parser {
       return new Expr.This(previous());
     }
 
+    if (match(SUPER)) {
+      Token keyword = previous();
+      consume(DOT, "Expect '.' after 'super'.");
+      Token method = consume(IDENTIFIER, "Expect superclass method name.");
+      return new Expr.Super(keyword, method);
+    }
+
     if (match(IDENTIFIER)) {
       return new Expr.Variable(previous());
     }
@@ -518,7 +685,9 @@ class Parser {
    * @return Token
    */
   private Token peek() {
-    return tokens.get(current);
+    Token token = tokens.get(current);
+    if (token.type == EOF) lookedAtEnd = true;
+    return token;
   }
 
   /**
@@ -531,7 +700,7 @@ class Parser {
   }
 
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    reporter.error(token, message);
     return new ParseError();
   }
 
@@ -552,6 +721,7 @@ class Parser {
         case PRINT:
         case WHILE:
         case RETURN:
+        case YIELD:
           return;
         default:
           break;
@@ -0,0 +1,306 @@
+package lox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Finds the top level functions whose result depends on nothing but their arguments, so that
+ * their calls can be memoized. Runs after the resolver, whose results tell locals from globals.
+ *
+ * A function is pure when its body:
+ *   - doesn't print, and doesn't touch instances (no this, get or set)
+ *   - declares no functions or classes
+ *   - reads and assigns only its own parameters and locals
+ *   - calls only top level functions that are pure themselves and are never rebound
+ *
+ * The last rule is what makes this a fixpoint: purity of a function depends on its callees.
+ *
+ * The interpreter keeps one analyzer for all the programs it runs, so that a REPL line rebinding
+ * a global is checked against the functions earlier lines memoized. Those that called it lose
+ * their memo cache.
+ */
+class PurityAnalyzer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+  private final Interpreter interpreter;
+
+  // * Functions declared at the top level, and global names that don't reliably refer to them
+  private final Map<String, Stmt.Function> globalFunctions = new HashMap<>();
+  private final Set<String> rebound = new HashSet<>();
+  // * Top level functions with a pure body -> the global functions they call
+  private final Map<Stmt.Function, Set<String>> candidates = new LinkedHashMap<>();
+  // * Functions the interpreter was told to memoize by an earlier program
+  private final Set<Stmt.Function> memoized = new HashSet<>();
+
+  // * The function being analyzed, callees is null outside of a top level function
+  private Set<String> callees = null;
+  private boolean pure = true;
+  // * Number of scopes entered inside the function, its parameters being scope 0
+  private int depth = 0;
+
+  PurityAnalyzer(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  /**
+   * * Analyzes a whole program and tells the interpreter which functions can be memoized, and
+   * * which of the ones memoized before can't be anymore.
+   * @param statements
+   */
+  void analyze(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (statement instanceof Stmt.Function) {
+        Stmt.Function function = (Stmt.Function) statement;
+        if (globalFunctions.put(function.name.lexeme, function) != null) {
+          rebound.add(function.name.lexeme);
+        }
+        analyzeFunction(function);
+        continue;
+      }
+
+      if (statement instanceof Stmt.Var) {
+        rebound.add(((Stmt.Var) statement).name.lexeme);
+      } else if (statement instanceof Stmt.Class) {
+        rebound.add(((Stmt.Class) statement).name.lexeme);
+      }
+      statement.accept(this);
+    }
+
+    // * Drop functions calling anything but a pure global function until nothing changes
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      Iterator<Map.Entry<Stmt.Function, Set<String>>> iterator = candidates.entrySet().iterator();
+      while (iterator.hasNext()) {
+        for (String callee : iterator.next().getValue()) {
+          Stmt.Function target = globalFunctions.get(callee);
+          if (target == null || rebound.contains(callee) || !candidates.containsKey(target)) {
+            iterator.remove();
+            changed = true;
+            break;
+          }
+        }
+      }
+    }
+
+    Iterator<Stmt.Function> iterator = memoized.iterator();
+    while (iterator.hasNext()) {
+      Stmt.Function function = iterator.next();
+      if (!candidates.containsKey(function)) {
+        interpreter.unmemoize(function);
+        iterator.remove();
+      }
+    }
+    for (Stmt.Function function : candidates.keySet()) {
+      if (memoized.add(function)) interpreter.memoize(function);
+    }
+  }
+
+  private void analyzeFunction(Stmt.Function function) {
+    callees = new HashSet<>();
+    pure = true;
+    depth = 0;
+    analyzeAll(function.body);
+
+    if (pure) {
+      candidates.put(function, callees);
+    }
+    callees = null;
+  }
+
+  /*
+   * Walks code that can't be memoized, such as nested functions and methods, only to spot
+   * assignments that rebind global names.
+   */
+  private void analyzeOutside(List<Stmt> body) {
+    Set<String> enclosingCallees = callees;
+    int enclosingDepth = depth;
+    callees = null;
+    analyzeAll(body);
+    callees = enclosingCallees;
+    depth = enclosingDepth;
+  }
+
+  private void analyzeAll(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      statement.accept(this);
+    }
+  }
+
+  private void analyze(Expr expr) {
+    expr.accept(this);
+  }
+
+  private void impure() {
+    pure = false;
+  }
+
+  private boolean isLocal(Expr expr) {
+    Integer distance = interpreter.distance(expr);
+    return distance != null && distance <= depth;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    depth++;
+    analyzeAll(stmt.statements);
+    depth--;
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    impure();
+    for (Stmt.Function method : stmt.methods) {
+      analyzeOutside(method.body);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    analyze(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    impure();
+    analyzeOutside(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    analyze(stmt.condition);
+    stmt.thenBranch.accept(this);
+    if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    impure();
+    analyze(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null) analyze(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    if (stmt.initializer != null) analyze(stmt.initializer);
+    return null;
+  }
+
+  @Override
+  public Void visitYieldStmt(Stmt.Yield stmt) {
+    // * Each call of a generator has to hand out its own generator
+    impure();
+    if (stmt.value != null) analyze(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    analyze(stmt.condtion);
+    stmt.body.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    analyze(expr.value);
+    if (interpreter.distance(expr) == null) {
+      rebound.add(expr.name.lexeme);
+    }
+    if (!isLocal(expr)) impure();
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    analyze(expr.left);
+    analyze(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    // * A call through a global name is checked against the other functions afterwards
+    if (callees != null && expr.callee instanceof Expr.Variable && interpreter.distance(expr.callee) == null) {
+      callees.add(((Expr.Variable) expr.callee).name.lexeme);
+    } else {
+      analyze(expr.callee);
+    }
+
+    for (Expr argument : expr.arguments) {
+      analyze(argument);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    impure();
+    analyze(expr.object);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    analyze(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    analyze(expr.left);
+    analyze(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    impure();
+    analyze(expr.object);
+    analyze(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    impure();
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    impure();
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    analyze(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    if (!isLocal(expr)) impure();
+    return null;
+  }
+}
@@ -1,22 +1,48 @@
 package lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   private final Interpreter interpreter;
-  private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+  private final List<Map<String, Boolean>> scopes = new ArrayList<>();
+  // * The declaring token of each local, parallel to scopes, so a captured one can be reported.
+  private final List<Map<String, Token>> declarations = new ArrayList<>();
+  // * The functions enclosing the code being resolved, innermost on top.
+  private final List<FunctionScope> functions = new ArrayList<>();
+  // * Counted loops being resolved, keyed by the declaration of their induction variable.
+  private final Map<Token, CountedLoop> countedLoops = new HashMap<>();
   private FunctionType currentFunction = FunctionType.NONE;
+  // * The statements enclosing the one being resolved, innermost on top.
+  private final List<Stmt> statements = new ArrayList<>();
+
+  private final ErrorReporter reporter;
+  // * Hands out coverage indices when the interpreter collects coverage
+  private final Coverage coverage;
+
+  // * Below this many top level functions and classes, forking costs more than it saves
+  private static final int PARALLEL_THRESHOLD = 64;
 
   Resolver(Interpreter interpreter) {
+    this(interpreter, Lox.reporter);
+  }
+
+  Resolver(Interpreter interpreter, ErrorReporter reporter) {
     this.interpreter = interpreter;
+    this.reporter = reporter;
+    this.coverage = interpreter.coverage();
   }
 
   private enum ClassType {
     NONE,
-    CLASS;
+    CLASS,
+    SUBCLASS;
   }
 
   private enum FunctionType {
@@ -28,6 +54,29 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   private ClassType currentClass = ClassType.NONE;
 
+  /*
+   * A function body being resolved. Any local it reads from outside of itself becomes an
+   * upvalue: when the function is created, only those variables are copied into its flat
+   * closure, so it doesn't keep the whole enclosing environment chain alive.
+   */
+  private static class FunctionScope {
+    // * Index in scopes of the outermost scope that belongs to the function at runtime.
+    // * For methods that is the scope holding "this".
+    final int firstScope;
+    // * Upvalue name -> distance from the scope the function is created in.
+    final Map<String, Integer> upvalues = new LinkedHashMap<>();
+    // * Index in statements of the function's first statement.
+    final int firstStatement;
+    // * Whether it yields, which makes it a generator, and its first return with a value.
+    boolean yields = false;
+    Token valueReturn = null;
+
+    FunctionScope(int firstScope, int firstStatement) {
+      this.firstScope = firstScope;
+      this.firstStatement = firstStatement;
+    }
+  }
+
   /*
    * Begins a new scope, traverses into the statements inside the block, and then
    * discards the scope.
@@ -35,8 +84,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
     beginScope();
-    resolve(stmt.statements);
+    CountedLoop loop = CountedLoop.match(stmt);
+    if (loop != null) {
+      resolveCountedLoop(stmt, loop);
+    } else {
+      resolve(stmt.statements);
+    }
     endScope();
+
+    // * Closures only hold on to the cells they capture, never to the block itself
+    interpreter.recycle(stmt);
     return null;
   }
 
@@ -52,8 +109,20 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     declare(stmt.name);
     define(stmt.name);
 
+    if (stmt.superclass != null) {
+      if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
+        reporter.error(stmt.superclass.name, "A class can't inherit from itself.");
+      }
+      currentClass = ClassType.SUBCLASS;
+      resolve(stmt.superclass);
+
+      // * Methods capture "super" from a scope wrapped around the one that binds "this"
+      beginScope();
+      peek(scopes).put("super", true);
+    }
+
     beginScope();
-    scopes.peek().put("this", true);
+    peek(scopes).put("this", true);
 
     for (Stmt.Function method : stmt.methods) {
       FunctionType declaration = FunctionType.METHOD;
@@ -65,6 +134,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     endScope();
 
+    if (stmt.superclass != null) endScope();
+
     currentClass = enclosingClass;
 
     return null;
@@ -89,10 +160,19 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitFunctionStmt(Stmt.Function stmt) {
     declare(stmt.name);
     define(stmt.name);
+    // * A body the parser skipped is resolved by resolveDeferred on the first call
+    if (stmt.body instanceof LazyBody) return null;
     resolveFunction(stmt, FunctionType.FUNCTION);
     return null;
   }
 
+  /*
+   * Resolves a top level function whose body was parsed late, see LazyBody.
+   */
+  void resolveDeferred(Stmt.Function function) {
+    resolveFunction(function, FunctionType.FUNCTION);
+  }
+
   /**
    * * Resolving Print statement
    * * An print statement contains a single expression to traverse.
@@ -110,19 +190,43 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
     if (currentFunction == FunctionType.NONE) {
-      Lox.error(stmt.keyword, "Can't return from top-level code.");
+      reporter.error(stmt.keyword, "Can't return from top-level code.");
     }
     if (stmt.value != null) {
       // * Initializer functions cannot return value
       if (currentFunction == FunctionType.INITIALIZER) {
-        Lox.error(stmt.keyword,
+        reporter.error(stmt.keyword,
             "Can't return a value from an initializer.");
       }
+      if (!functions.isEmpty() && peek(functions).valueReturn == null) {
+        peek(functions).valueReturn = stmt.keyword;
+      }
       resolve(stmt.value);
     }
     return null;
   }
 
+  /**
+   * * A yield makes the function around it a generator. Every statement the yield is nested in
+   * * has to be able to stop and resume, so those are marked for LoxGenerator.
+   */
+  @Override
+  public Void visitYieldStmt(Stmt.Yield stmt) {
+    if (currentFunction == FunctionType.NONE) {
+      reporter.error(stmt.keyword, "Can't yield from top-level code.");
+    } else if (currentFunction == FunctionType.INITIALIZER) {
+      reporter.error(stmt.keyword, "Can't yield from an initializer.");
+    } else {
+      FunctionScope scope = peek(functions);
+      scope.yields = true;
+      for (int i = scope.firstStatement; i < statements.size(); i++) {
+        interpreter.suspends(statements.get(i));
+      }
+    }
+    if (stmt.value != null) resolve(stmt.value);
+    return null;
+  }
+
   /**
    * * Resolving While statement
    * * while statement, we resolve its condition and resolve the body exactly
@@ -142,6 +246,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
    */
   @Override
   public Void visitIfStmt(Stmt.If stmt) {
+    if (coverage != null) coverage.branch(stmt);
     resolve(stmt.condition);
     resolve(stmt.thenBranch);
     if (stmt.elseBranch != null)
@@ -222,6 +327,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
    */
   @Override
   public Void visitLogicalExpr(Expr.Logical expr) {
+    if (coverage != null) coverage.branch(expr, expr.operator.line);
     resolve(expr.left);
     resolve(expr.right);
     return null;
@@ -237,13 +343,38 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  /**
+   * * Resolving super keyword
+   * * Both the superclass and the receiver are resolved, since a closure inside a method can
+   * * capture them separately.
+   */
+  @Override
+  public Void visitSuperExpr(Expr.Super expr) {
+    if (currentClass == ClassType.NONE) {
+      reporter.error(expr.keyword, "Can't use 'super' outside of a class.");
+      return null;
+    } else if (currentClass != ClassType.SUBCLASS) {
+      reporter.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+      return null;
+    }
+
+    resolveLocal(expr, expr.keyword);
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      if (scopes.get(i).containsKey("this")) {
+        interpreter.receiver(expr, distanceTo("this", i));
+        break;
+      }
+    }
+    return null;
+  }
+
   /**
    * * Resolving Set this keyword
    */
   @Override
   public Void visitThisExpr(Expr.This expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword,
+      reporter.error(expr.keyword,
           "Can't use 'this' outside of a class.");
       return null;
     }
@@ -263,8 +394,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
   @Override
   public Void visitVariableExpr(Expr.Variable expr) {
-    if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-      Lox.error(expr.name, "Can't read local variable in its own initializer.");
+    if (!scopes.isEmpty() && peek(scopes).get(expr.name.lexeme) == Boolean.FALSE) {
+      reporter.error(expr.name, "Can't read local variable in its own initializer.");
     }
     resolveLocal(expr, expr.name);
     return null;
@@ -278,7 +409,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
    * @param stmt
    */
   private void resolve(Stmt stmt) {
+    if (coverage != null) coverage.statement(stmt);
+    statements.add(stmt);
     stmt.accept(this);
+    pop(statements);
   }
 
   /**
@@ -310,6 +444,101 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     // }
   }
 
+  /**
+   * * Resolves a whole program. Top level functions and classes share no resolver state, since
+   * * globals aren't tracked, so each of them is resolved on the fork-join pool by a resolver
+   * * of its own while this one does the remaining statements. Every statement reports into
+   * * its own buffer, and the buffers are replayed in order once all of them are done, so
+   * * errors come out in source order. Each resolution result is keyed by a different node,
+   * * which leaves the interpreter's tables the same whatever order they're filled in.
+   * @param statements
+   */
+  void resolveProgram(List<Stmt> statements) {
+    int independent = 0;
+    for (Stmt statement : statements) {
+      if (isIndependent(statement)) independent++;
+    }
+    if (independent < PARALLEL_THRESHOLD || ForkJoinPool.getCommonPoolParallelism() < 2) {
+      resolve(statements);
+      return;
+    }
+
+    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    List<ErrorBuffer> errors = new ArrayList<>();
+    for (Stmt statement : statements) {
+      ErrorBuffer buffer = new ErrorBuffer();
+      errors.add(buffer);
+      Resolver resolver = new Resolver(interpreter, buffer);
+      if (isIndependent(statement)) {
+        tasks.add(ForkJoinTask.adapt(() -> resolver.resolve(statement)).fork());
+      } else {
+        resolver.resolve(statement);
+      }
+    }
+
+    for (ForkJoinTask<?> task : tasks) {
+      task.join();
+    }
+    for (ErrorBuffer buffer : errors) {
+      buffer.replay(reporter);
+    }
+  }
+
+  /*
+   * Whether a top level statement has a body to resolve now that can go to the pool. A deferred
+   * function body is resolved on its first call, so only its name is left, which isn't worth a
+   * task of its own.
+   */
+  private static boolean isIndependent(Stmt statement) {
+    if (statement instanceof Stmt.Class) return true;
+    return statement instanceof Stmt.Function && !(((Stmt.Function) statement).body instanceof LazyBody);
+  }
+
+  /*
+   * Holds on to the errors of one statement until it's its turn to report them.
+   */
+  private static class ErrorBuffer implements ErrorReporter {
+    private final List<Consumer<ErrorReporter>> errors = new ArrayList<>();
+
+    @Override
+    public void error(int line, String message) {
+      errors.add(reporter -> reporter.error(line, message));
+    }
+
+    @Override
+    public void error(Token token, String message) {
+      errors.add(reporter -> reporter.error(token, message));
+    }
+
+    void replay(ErrorReporter reporter) {
+      for (Consumer<ErrorReporter> error : errors) {
+        error.accept(reporter);
+      }
+    }
+  }
+
+  /**
+   * * Resolves a desugared for loop while counting how its induction variable is used.
+   * * The condition reads it once and the increment reads and writes it once, so any other
+   * * write rules the specialization out and any other read means the counter has to be
+   * * written back to the variable on every iteration.
+   * @param stmt
+   * @param loop
+   */
+  private void resolveCountedLoop(Stmt.Block stmt, CountedLoop loop) {
+    resolve(stmt.statements.get(0));
+
+    Token declaration = peek(declarations).get(loop.name.lexeme);
+    countedLoops.put(declaration, loop);
+    resolve(stmt.statements.get(1));
+    countedLoops.remove(declaration);
+
+    if (loop.writes == 1) {
+      loop.materialize = loop.reads > 2;
+      interpreter.countedLoop((Stmt.While) stmt.statements.get(1), loop);
+    }
+  }
+
   /**
    * * Resolving the function
    * 
@@ -318,18 +547,51 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   private void resolveFunction(Stmt.Function function, FunctionType type) {
     FunctionType enclosingFunction = currentFunction; // * Default NONE
     currentFunction = type;
+
     beginScope();
+    // * A method's runtime chain also includes the environment that binds "this"
+    int firstScope = scopes.size() - 1;
+    if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+      firstScope--;
+    }
+    FunctionScope scope = new FunctionScope(firstScope, statements.size());
+    functions.add(scope);
+
     for (Token param : function.params) {
       declare(param);
       define(param);
     }
     resolve(function.body);
     endScope();
+
+    pop(functions);
+    if (!scope.upvalues.isEmpty()) {
+      interpreter.upvalues(function, scope.upvalues);
+    }
+    if (scope.yields) {
+      if (scope.valueReturn != null) {
+        reporter.error(scope.valueReturn, "Can't return a value from a generator.");
+      }
+      // * A generator's frame lives on between the values it yields
+      interpreter.generator(function);
+    } else {
+      // * Nested closures copy what they need, so the call frame never outlives the call
+      interpreter.recycle(function);
+    }
     currentFunction = enclosingFunction;
   }
 
+  private static <T> T peek(List<T> stack) {
+    return stack.get(stack.size() - 1);
+  }
+
+  private static <T> void pop(List<T> stack) {
+    stack.remove(stack.size() - 1);
+  }
+
   private void beginScope() {
-    scopes.push(new HashMap<String, Boolean>());
+    scopes.add(new HashMap<String, Boolean>());
+    declarations.add(new HashMap<String, Token>());
   }
 
   private void endScope() {
@@ -338,7 +600,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     // System.out.println(scopes.get(i));
     // }
     // System.out.println("------- Resolver Scopes -------");
-    scopes.pop();
+    pop(scopes);
+    pop(declarations);
   }
 
   // * We mark it as “not ready yet” by binding its name to false in the scope
@@ -347,15 +610,16 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     if (scopes.isEmpty())
       return;
 
-    Map<String, Boolean> scope = scopes.peek();
+    Map<String, Boolean> scope = peek(scopes);
     if (scope.containsKey(name.lexeme)) {
       // * When we declare a variable in a local scope, we already know the names of
       // * every variable previously declared in that same scope. If we see a
       // collision,
       // * we report an error.
-      Lox.error(name, "Already a variable with this name in this scope.");
+      reporter.error(name, "Already a variable with this name in this scope.");
     }
     scope.put(name.lexeme, false);
+    peek(declarations).put(name.lexeme, name);
   }
 
   // * Mark the varible value in scope map to true to mark it as fully initialized
@@ -364,7 +628,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     if (scopes.isEmpty())
       return;
 
-    scopes.peek().put(name.lexeme, true);
+    peek(scopes).put(name.lexeme, true);
   }
 
   private void resolveLocal(Expr expr, Token name) {
@@ -372,9 +636,63 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       if (scopes.get(i).containsKey(name.lexeme)) {
         // * The resolver hands that number of environments to the interpreter by
         // calling this:
-        interpreter.resolve(expr, scopes.size() - 1 - i);
+        interpreter.resolve(expr, distanceTo(name.lexeme, i));
+        trackInduction(expr, declarations.get(i).get(name.lexeme));
         return;
       }
     }
   }
+
+  private void trackInduction(Expr expr, Token declaration) {
+    if (declaration == null) return;
+    CountedLoop loop = countedLoops.get(declaration);
+    if (loop == null) return;
+
+    if (expr instanceof Expr.Assign) {
+      loop.writes++;
+    } else {
+      loop.reads++;
+    }
+  }
+
+  /*
+   * Number of environments between the current scope and the variable declared in scopes[scope].
+   * A variable from outside the innermost function is read from that function's flat closure,
+   * which sits right behind the function's own scopes.
+   */
+  private int distanceTo(String name, int scope) {
+    if (functions.isEmpty() || scope >= peek(functions).firstScope) {
+      return scopes.size() - 1 - scope;
+    }
+
+    FunctionScope function = peek(functions);
+    capture(name, scope, functions.size() - 1);
+    return scopes.size() - function.firstScope;
+  }
+
+  /*
+   * Makes the variable declared in scopes[scope] an upvalue of functions[index], threading it
+   * through every function in between the same way clox does.
+   */
+  private void capture(String name, int scope, int index) {
+    FunctionScope function = functions.get(index);
+    if (function.upvalues.containsKey(name)) return;
+
+    // * The function is created in the scope right outside its own
+    int site = function.firstScope - 1;
+    int distance;
+    if (index == 0 || scope >= functions.get(index - 1).firstScope) {
+      // * Declared directly in the creating function (or in a block of the top level code)
+      distance = site - scope;
+      Token declaration = declarations.get(scope).get(name);
+      if (declaration != null) {
+        interpreter.capture(declaration);
+      }
+    } else {
+      // * Declared further out, so the creating function has to capture it first
+      capture(name, scope, index - 1);
+      distance = site - functions.get(index - 1).firstScope + 1;
+    }
+    function.upvalues.put(name, distance);
+  }
 }
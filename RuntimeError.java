@@ -1,10 +1,79 @@
 package lox;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Runtime errors carry a Lox traceback instead of a Java stack trace, which would only show the
+ * interpreter's visitor methods and costs a walk over the whole native stack to capture.
+ * The traceback is built while the error unwinds through Interpreter.call, so calls that don't
+ * fail pay nothing for it.
+ */
 class RuntimeError extends RuntimeException {
     final Token token;
-    
+    // * Functions the error unwound out of, innermost first, and the line each was called from,
+    // * null until known
+    private final List<String> functions = new ArrayList<>();
+    private final List<Integer> callLines = new ArrayList<>();
+
+    // * Longer tracebacks only show this many frames from each end
+    private static final int MAX_FRAMES = 20;
+
     RuntimeError(Token token, String message) {
-      super(message);
+      super(message, null, false, false);
       this.token = token;
     }
+
+    /*
+     * For natives, which don't know where they were called from. Interpreter.call fills it in.
+     */
+    RuntimeError(String message) {
+      this(null, message);
+    }
+
+    /**
+     * * Records a Lox frame the error is leaving.
+     * @param function
+     * @param callSite
+     */
+    void unwound(String function, Token callSite) {
+      int last = callLines.size() - 1;
+      if (last >= 0 && callLines.get(last) == null) callLines.set(last, callSite.line);
+      functions.add(function);
+      callLines.add(callSite.line);
+    }
+
+    /**
+     * * Records the frame of a generator body the error is leaving. The generator doesn't know
+     * * where it was resumed from; the native that resumed it does, and the next frame fills
+     * * the line in.
+     * @param function
+     */
+    void unwound(String function) {
+      functions.add(function);
+      callLines.add(null);
+    }
+
+    /**
+     * * One line per frame, innermost first, ending with the top level script. An error
+     * * raised by top level code is just its line.
+     * @return String
+     */
+    String traceback() {
+      if (functions.isEmpty()) return "[line " + token.line + "]";
+
+      StringBuilder traceback = new StringBuilder();
+      int frames = functions.size();
+      for (int i = 0; i < frames; i++) {
+        if (frames > MAX_FRAMES && i == MAX_FRAMES / 2) {
+          int skipped = frames - MAX_FRAMES;
+          traceback.append("[... ").append(skipped).append(" more frames]\n");
+          i += skipped - 1;
+          continue;
+        }
+        int line = i == 0 ? token.line : callLines.get(i - 1);
+        traceback.append("[line ").append(line).append("] in ").append(functions.get(i)).append("\n");
+      }
+      return traceback.append("[line ").append(callLines.get(frames - 1)).append("] in script").toString();
+    }
 }
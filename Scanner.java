@@ -13,9 +13,24 @@ class Scanner {
   private int start = 0;
   private int current = 0;
   private int line = 1;
+  private final ErrorReporter reporter;
+  // * Set when a string or comment runs into the end of the source
+  boolean unterminated = false;
 
   Scanner(String source)  {
+    this(source, 1, Lox.reporter);
+  }
+
+  /**
+   * * Scans a piece of a larger source that starts on the given line.
+   * @param source
+   * @param line
+   * @param reporter
+   */
+  Scanner(String source, int line, ErrorReporter reporter) {
     this.source = source;
+    this.line = line;
+    this.reporter = reporter;
   }
 
   List<Token> scanTokens() {
@@ -25,7 +40,7 @@ class Scanner {
       scanToken();
     }
 
-    tokens.add(new Token(EOF, "", null, line));
+    tokens.add(new Token(EOF, "", null, line, current));
     return tokens;
   }
 
@@ -41,6 +56,7 @@ class Scanner {
       case '-': addToken(MINUS); break;
       case '+': addToken(PLUS); break;
       case ';': addToken(SEMICOLON); break;
+      case ':': addToken(COLON); break;
       case '*': addToken(STAR); break;
       case '!':
           addToken(match('=') ? BANG_EQUAL : BANG);
@@ -49,10 +65,10 @@ class Scanner {
           addToken(match('=') ? EQUAL_EQUAL : EQUAL);
           break;
       case '<':
-          addToken(match('<') ? LESS_EQUAL : LESS);
+          addToken(match('=') ? LESS_EQUAL : LESS);
           break;
       case '>':
-          addToken(match('>') ? GREATER_EQUAL : GREATER);
+          addToken(match('=') ? GREATER_EQUAL : GREATER);
           break;
       case '/':
           if(match('/')) {
@@ -83,7 +99,7 @@ class Scanner {
         else if(isAlpha(c)) {
           identifier();
         } else {
-          Lox.error(line, "Unexpected character.");
+          reporter.error(line, "Unexpected character.");
         }
         break;
     }
@@ -108,6 +124,7 @@ class Scanner {
     keywords.put("true",    TRUE);
     keywords.put("var",     VAR);
     keywords.put("while",   WHILE);
+    keywords.put("yield",   YIELD);
   }
 
   private void identifier() {
@@ -138,38 +155,33 @@ class Scanner {
     }
 
     if(isAtEnd()) {
-      Lox.error(line, "Unterminated string.");
+      unterminated = true;
+      reporter.error(line, "Unterminated string.");
       return;
     }
 
     advance(); // * till the closing ".
     // * Trim the surrounding quotes
-    String value = source.substring(start+1, current-1);
+    String value = Interner.intern(source.substring(start+1, current-1));
     addToken(STRING, value);
   }
 
   private void multilineComment() {
-   
-    // * Move forwart till you find */
-    while(peek() != '*' && peekNext() != '/') {
+    // * Move forward till you find */
+    while(!isAtEnd() && !(peek() == '*' && peekNext() == '/')) {
       if(peek() == '\n') line++;
       advance();
     }
-    advance();
-   
-    if(!isAtEnd() && peek() == '/') {
-      advance();
-      return;
-    }
 
     if(isAtEnd()) {
+      unterminated = true;
+      reporter.error(line, "Unterminated comment.");
       return;
     }
 
-    if(peekNext() != '/') {
-      Lox.error(line, "Unterminated comment.");
-      return;
-    }
+    // * Consume the closing */
+    advance();
+    advance();
   }
 
   private boolean match(char expected) {
@@ -221,7 +233,9 @@ class Scanner {
   // * Grabs the text of current lexeme and creates a new token for it
   private void addToken(TokenType type, Object literal) {
     String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+    // * Names share the interned strings, so looking up a field or method compares references
+    if (type == IDENTIFIER) text = Interner.intern(text);
+    tokens.add(new Token(type, text, literal, line, start));
   }
   
 
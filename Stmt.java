@@ -13,6 +13,7 @@ abstract class Stmt {
     R visitReturnStmt(Return stmt);
     R visitVarStmt(Var stmt);
     R visitWhileStmt(While stmt);
+    R visitYieldStmt(Yield stmt);
   }
 
   static class Block extends Stmt {
@@ -29,8 +30,9 @@ abstract class Stmt {
   }
 
   static class Class extends Stmt {
-    Class(Token name, List<Stmt.Function> methods) {
+    Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
       this.name = name;
+      this.superclass = superclass;
       this.methods = methods;
     }
 
@@ -40,6 +42,7 @@ abstract class Stmt {
     }
 
     final Token name;
+    final Expr.Variable superclass;
     final List<Stmt.Function> methods;
   }
 
@@ -57,9 +60,11 @@ abstract class Stmt {
   }
 
   static class Function extends Stmt {
-    Function(Token name, List<Token> params, List<Stmt> body) {
+    Function(Token name, List<Token> params, List<Token> paramTypes, Token returnType, List<Stmt> body) {
       this.name = name;
       this.params = params;
+      this.paramTypes = paramTypes;
+      this.returnType = returnType;
       this.body = body;
     }
 
@@ -70,6 +75,8 @@ abstract class Stmt {
 
     final Token name;
     final List<Token> params;
+    final List<Token> paramTypes;
+    final Token returnType;
     final List<Stmt> body;
   }
 
@@ -119,8 +126,9 @@ abstract class Stmt {
   }
 
   static class Var extends Stmt {
-    Var(Token name, Expr initializer) {
+    Var(Token name, Token type, Expr initializer) {
       this.name = name;
+      this.type = type;
       this.initializer = initializer;
     }
 
@@ -130,11 +138,13 @@ abstract class Stmt {
     }
 
     final Token name;
+    final Token type;
     final Expr initializer;
   }
 
   static class While extends Stmt {
-    While(Expr condtion, Stmt body) {
+    While(Token keyword, Expr condtion, Stmt body) {
+      this.keyword = keyword;
       this.condtion = condtion;
       this.body = body;
     }
@@ -144,10 +154,26 @@ abstract class Stmt {
       return visitor.visitWhileStmt(this);
     }
 
+    final Token keyword;
     final Expr condtion;
     final Stmt body;
   }
 
+  static class Yield extends Stmt {
+    Yield(Token keyword, Expr value) {
+      this.keyword = keyword;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitYieldStmt(this);
+    }
+
+    final Token keyword;
+    final Expr value;
+  }
+
 
   abstract <R> R accept(Visitor<R> visitor);
 }
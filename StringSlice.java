@@ -0,0 +1,102 @@
+package lox;
+
+/*
+ * A Lox string that is a range of another one, what substring and split return. Making one
+ * copies nothing; the characters are only copied out the first time something needs a real
+ * String, such as printing or concatenation, and from then on the slice stops holding on to
+ * the string it was cut from.
+ *
+ * To a script a slice is just a string: it's equal to any string with the same characters.
+ */
+final class StringSlice implements CharSequence {
+  private String source;
+  private int start;
+  private int end;
+
+  private StringSlice(String source, int start, int end) {
+    this.source = source;
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * * The characters [from, to) of a string or slice. Slicing a slice refers to the original
+   * * string, so slices never chain.
+   * @param text
+   * @param from
+   * @param to
+   * @return CharSequence
+   */
+  static CharSequence of(CharSequence text, int from, int to) {
+    if (from == 0 && to == text.length()) return text;
+    if (text instanceof StringSlice) {
+      StringSlice slice = (StringSlice) text;
+      return new StringSlice(slice.source, slice.start + from, slice.start + to);
+    }
+    return new StringSlice((String) text, from, to);
+  }
+
+  /*
+   * Whether two Lox values are strings with the same characters, slices or not.
+   */
+  static boolean same(Object a, Object b) {
+    if (!(a instanceof CharSequence) || !(b instanceof CharSequence)) return false;
+    CharSequence left = (CharSequence) a;
+    CharSequence right = (CharSequence) b;
+    return left.length() == right.length() && CharSequence.compare(left, right) == 0;
+  }
+
+  /**
+   * * Where needle first occurs in text at or after from, without materializing either of them.
+   * @param text
+   * @param needle
+   * @param from
+   * @return int index into text, -1 if there is none
+   */
+  static int indexOf(CharSequence text, CharSequence needle, int from) {
+    int length = needle.length();
+    int last = text.length() - length;
+    if (length == 0) return from <= text.length() ? from : -1;
+
+    char first = needle.charAt(0);
+    for (int i = from; i <= last; i++) {
+      if (text.charAt(i) != first) continue;
+      int j = 1;
+      while (j < length && text.charAt(i + j) == needle.charAt(j)) j++;
+      if (j == length) return i;
+    }
+    return -1;
+  }
+
+  /*
+   * The string holding the characters, for the memory meter.
+   */
+  String source() {
+    return source;
+  }
+
+  @Override
+  public int length() {
+    return end - start;
+  }
+
+  @Override
+  public char charAt(int index) {
+    return source.charAt(start + index);
+  }
+
+  @Override
+  public CharSequence subSequence(int from, int to) {
+    return of(this, from, to);
+  }
+
+  @Override
+  public String toString() {
+    if (start != 0 || end != source.length()) {
+      source = source.substring(start, end);
+      start = 0;
+      end = source.length();
+    }
+    return source;
+  }
+}
@@ -6,12 +6,15 @@ class Token {
   final String lexeme;
   final Object literal;
   final int line; // [location]
+  // * Index of the first character of the lexeme in the scanned source
+  final int offset;
 
-  Token(TokenType type, String lexeme, Object literal, int line) {
+  Token(TokenType type, String lexeme, Object literal, int line, int offset) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.offset = offset;
   }
   
   public String toString() {
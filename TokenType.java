@@ -14,7 +14,7 @@ enum TokenType {
 
   // * Keywords
   AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR, PRINT,
-  RETURN, SUPER, THIS, TRUE, VAR, WHILE,
+  RETURN, SUPER, THIS, TRUE, VAR, WHILE, YIELD,
 
   EOF
 }
\ No newline at end of file
@@ -0,0 +1,319 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Verifies the optional type annotations. 'num' is the only type there is: it may be put on
+ * local variables, parameters and function results, and the checker makes sure nothing that is
+ * known to be something else flows into them. Values whose type can't be known statically,
+ * such as call results, are checked once at runtime where they enter a typed variable.
+ *
+ * Along the way it finds the expressions that always evaluate to a number, which the compiled
+ * tier then runs on primitive doubles without operand checks. Code without annotations is only
+ * inferred, never rejected, so it behaves exactly as it would without the checker.
+ *
+ * Globals can't be typed: any code, checked or not, may assign them at any time.
+ */
+class TypeChecker implements Expr.Visitor<TypeChecker.Type>, Stmt.Visitor<Void> {
+  enum Type {
+    NUMBER,
+    STRING,
+    BOOLEAN,
+    NIL,
+    DYNAMIC;
+  }
+
+  private final Interpreter interpreter;
+  private final ErrorReporter reporter;
+  // * Mirrors the resolver's scopes, with the declared type of every local
+  private final List<Map<String, Type>> scopes = new ArrayList<>();
+  // * The function whose body is being checked, for its return type
+  private Stmt.Function function = null;
+
+  TypeChecker(Interpreter interpreter) {
+    this(interpreter, Lox.reporter);
+  }
+
+  TypeChecker(Interpreter interpreter, ErrorReporter reporter) {
+    this.interpreter = interpreter;
+    this.reporter = reporter;
+  }
+
+  void check(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      statement.accept(this);
+    }
+  }
+
+  private Type check(Expr expr) {
+    return expr.accept(this);
+  }
+
+  /**
+   * * Checks a type annotation names a known type.
+   * @param type
+   * @return whether it's 'num'
+   */
+  private boolean isNumber(Token type) {
+    if (type == null) return false;
+    if (!type.lexeme.equals("num")) {
+      reporter.error(type, "Unknown type '" + type.lexeme + "'.");
+      return false;
+    }
+    return true;
+  }
+
+  private static String describe(Type type) {
+    switch (type) {
+      case STRING: return "a string";
+      case BOOLEAN: return "a boolean";
+      default: return "nil";
+    }
+  }
+
+  private void declare(Token name, Type type) {
+    if (scopes.isEmpty()) return;
+    scopes.get(scopes.size() - 1).put(name.lexeme, type);
+  }
+
+  private Type lookup(Token name) {
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      Type type = scopes.get(i).get(name.lexeme);
+      if (type != null) return type;
+    }
+    return Type.DYNAMIC;
+  }
+
+  private Type numeric(Expr expr) {
+    interpreter.numeric(expr);
+    return Type.NUMBER;
+  }
+
+  private void checkFunction(Stmt.Function declaration, boolean isInitializer) {
+    Stmt.Function enclosingFunction = function;
+    function = declaration;
+
+    scopes.add(new HashMap<>());
+    for (int i = 0; i < declaration.params.size(); i++) {
+      Token param = declaration.params.get(i);
+      if (isNumber(declaration.paramTypes.get(i))) {
+        interpreter.number(param);
+        declare(param, Type.NUMBER);
+      } else {
+        declare(param, Type.DYNAMIC);
+      }
+    }
+    if (declaration.returnType != null) {
+      if (isInitializer) {
+        reporter.error(declaration.returnType, "Can't annotate the result of an initializer.");
+      } else {
+        isNumber(declaration.returnType);
+      }
+    }
+    check(declaration.body);
+    scopes.remove(scopes.size() - 1);
+
+    function = enclosingFunction;
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    scopes.add(new HashMap<>());
+    check(stmt.statements);
+    scopes.remove(scopes.size() - 1);
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    declare(stmt.name, Type.DYNAMIC);
+    if (stmt.superclass != null) check(stmt.superclass);
+    for (Stmt.Function method : stmt.methods) {
+      checkFunction(method, method.name.lexeme.equals("init"));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    check(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    declare(stmt.name, Type.DYNAMIC);
+    if (stmt.body instanceof LazyBody) return null;
+    checkFunction(stmt, false);
+    return null;
+  }
+
+  /*
+   * Checks a top level function whose body was parsed late, see LazyBody.
+   */
+  void checkDeferred(Stmt.Function function) {
+    checkFunction(function, false);
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    check(stmt.condition);
+    stmt.thenBranch.accept(this);
+    if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    check(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    Type type = stmt.value == null ? Type.NIL : check(stmt.value);
+    if (function != null && function.returnType != null
+        && type != Type.NUMBER && type != Type.DYNAMIC) {
+      reporter.error(stmt.keyword, "Can't return " + describe(type) + " from '"
+          + function.name.lexeme + "', which returns 'num'.");
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    Type type = stmt.initializer == null ? Type.NIL : check(stmt.initializer);
+    if (!isNumber(stmt.type)) {
+      declare(stmt.name, Type.DYNAMIC);
+      return null;
+    }
+
+    if (scopes.isEmpty()) {
+      reporter.error(stmt.type, "Only local variables can have a type.");
+    } else if (stmt.initializer == null) {
+      reporter.error(stmt.name, "A 'num' variable needs an initializer.");
+    } else if (type != Type.NUMBER && type != Type.DYNAMIC) {
+      reporter.error(stmt.name, "Can't initialize '" + stmt.name.lexeme + "', which is a 'num', with "
+          + describe(type) + ".");
+    } else {
+      interpreter.number(stmt.name);
+      declare(stmt.name, Type.NUMBER);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitYieldStmt(Stmt.Yield stmt) {
+    if (stmt.value != null) check(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    check(stmt.condtion);
+    stmt.body.accept(this);
+    return null;
+  }
+
+  @Override
+  public Type visitAssignExpr(Expr.Assign expr) {
+    Type value = check(expr.value);
+    if (lookup(expr.name) != Type.NUMBER) return Type.DYNAMIC;
+
+    if (value == Type.NUMBER) return numeric(expr);
+    if (value != Type.DYNAMIC) {
+      reporter.error(expr.name, "Can't assign " + describe(value) + " to '" + expr.name.lexeme
+          + "', which is a 'num'.");
+    }
+    return Type.DYNAMIC;
+  }
+
+  @Override
+  public Type visitBinaryExpr(Expr.Binary expr) {
+    Type left = check(expr.left);
+    Type right = check(expr.right);
+    boolean numbers = left == Type.NUMBER && right == Type.NUMBER;
+
+    switch (expr.operator.type) {
+      case PLUS:
+        if (numbers) return numeric(expr);
+        if (left == Type.STRING && right == Type.STRING) return Type.STRING;
+        return Type.DYNAMIC;
+      case MINUS:
+      case STAR:
+      case SLASH:
+        return numbers ? numeric(expr) : Type.DYNAMIC;
+      default:
+        // * Comparisons either fail or produce a boolean
+        return Type.BOOLEAN;
+    }
+  }
+
+  @Override
+  public Type visitCallExpr(Expr.Call expr) {
+    check(expr.callee);
+    for (Expr argument : expr.arguments) {
+      check(argument);
+    }
+    return Type.DYNAMIC;
+  }
+
+  @Override
+  public Type visitGetExpr(Expr.Get expr) {
+    check(expr.object);
+    return Type.DYNAMIC;
+  }
+
+  @Override
+  public Type visitGroupingExpr(Expr.Grouping expr) {
+    Type type = check(expr.expression);
+    return type == Type.NUMBER ? numeric(expr) : type;
+  }
+
+  @Override
+  public Type visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value instanceof Double) return numeric(expr);
+    if (expr.value instanceof String) return Type.STRING;
+    if (expr.value instanceof Boolean) return Type.BOOLEAN;
+    return Type.NIL;
+  }
+
+  @Override
+  public Type visitLogicalExpr(Expr.Logical expr) {
+    check(expr.left);
+    check(expr.right);
+    return Type.DYNAMIC;
+  }
+
+  @Override
+  public Type visitSetExpr(Expr.Set expr) {
+    check(expr.object);
+    check(expr.value);
+    return Type.DYNAMIC;
+  }
+
+  @Override
+  public Type visitSuperExpr(Expr.Super expr) {
+    return Type.DYNAMIC;
+  }
+
+  @Override
+  public Type visitThisExpr(Expr.This expr) {
+    return Type.DYNAMIC;
+  }
+
+  @Override
+  public Type visitUnaryExpr(Expr.Unary expr) {
+    Type right = check(expr.right);
+    if (expr.operator.type == TokenType.BANG) return Type.BOOLEAN;
+    return right == Type.NUMBER ? numeric(expr) : Type.DYNAMIC;
+  }
+
+  @Override
+  public Type visitVariableExpr(Expr.Variable expr) {
+    return lookup(expr.name) == Type.NUMBER ? numeric(expr) : Type.DYNAMIC;
+  }
+}
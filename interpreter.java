@@ -1,19 +1,90 @@
 package lox;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   // private Environment environment = new Environment();
   final Environment globals = new Environment();
   private Environment environment = globals;
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  // * The resolution tables below are concurrent because the background compiler reads them too
+  private final Map<Expr, Integer> locals = new ConcurrentHashMap<>();
+
+  // * Distance to the "this" a super expression binds its method to.
+  private final Map<Expr.Super, Integer> receivers = new ConcurrentHashMap<>();
+
+  // * Cell of the global each unresolved variable or assignment refers to, once it was found.
+  private final Map<Expr, Cell> globalCells = new ConcurrentHashMap<>();
+
+  // * Locals and parameters declared ': num', stored unboxed in a NumberCell.
+  private final Set<Token> numbers = ConcurrentHashMap.newKeySet();
+  // * Expressions the type checker proved always evaluate to a number.
+  private final Set<Expr> numeric = ConcurrentHashMap.newKeySet();
+
+  // * Locals that some closure captures; they are stored in a shared Cell.
+  private final Set<Token> captured = ConcurrentHashMap.newKeySet();
+  // * For each function that captures locals: upvalue name -> distance from where it's declared.
+  private final Map<Stmt.Function, Map<String, Integer>> upvalues = new ConcurrentHashMap<>();
+  // * Desugared for loops the resolver found in the canonical counted shape.
+  private final Map<Stmt.While, CountedLoop> countedLoops = new ConcurrentHashMap<>();
+  // * Blocks and functions whose scope the resolver proved is never captured by a closure.
+  private final Set<Stmt> recyclable = ConcurrentHashMap.newKeySet();
+  // * Functions that yield, and the statements in them a yield is nested in.
+  private final Set<Stmt.Function> generators = ConcurrentHashMap.newKeySet();
+  private final Set<Stmt> suspending = ConcurrentHashMap.newKeySet();
+  // * Environments handed back by exited non-escaping scopes, ready to be reused.
+  private final Deque<Environment> environmentPool = new ArrayDeque<>();
+  private static final int MAX_POOLED_ENVIRONMENTS = 256;
+
+  // * Call and loop counts of every function declaration, used to pick the hot ones to compile.
+  private final Map<Stmt.Function, FunctionProfile> profiles = new HashMap<>();
+  // * Profile of the interpreted function currently running, null at the top level.
+  private FunctionProfile profile = null;
+
+  // * Limits applied to every run, 0 meaning unlimited, and the budget of the current run
+  private long fuelLimit = 0;
+  private long timeoutMillis = 0;
+  private volatile Budget budget = null;
+
+  // * Memory limit in bytes, whether to measure the peak without one, the meter of the current
+  // * run and the peak the last run reached
+  private long memoryLimit = 0;
+  private boolean memoryReport = false;
+  private MemoryMeter memory = null;
+  private long peakMemory = 0;
+
+  // * Files scripts opened and haven't closed yet
+  private final Set<LoxFile> openFiles = new LinkedHashSet<>();
+
+  // * Whether calls to pure functions go through their memo cache
+  private boolean memoize = false;
+  // * Remembers the globals of every program run so far, created by the first one that memoizes
+  private PurityAnalyzer purity = null;
+
+  // * The coverage counters, only when coverage is collected
+  private Coverage coverage = null;
+
+  // * Whether every program and function is compiled before it runs, instead of when it's hot
+  private boolean compileAll = false;
+  // * Whether a debugger is attached, see attachDebugger
+  private boolean debugged = false;
+
+  // * Lox calls currently on the stack
+  private int callDepth = 0;
 
   Interpreter() {
-    globals.define("clock", new LoxCallable() {
+    LoxMetrics.metrics.register();
+
+    globals.defineGlobal("clock", new LoxCallable() {
       @Override
       public int arity() { return 0; }
 
@@ -26,6 +97,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       public String toString() { return "<native fn>"; }
 
     });
+    Natives.defineAll(globals);
+    Natives.defineFiles(globals);
   }
 
   /**
@@ -34,13 +107,181 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    * @param expression
    */
   void interpret(List<Stmt> statements) {
+    if (fuelLimit > 0 || timeoutMillis > 0) {
+      budget = new Budget(fuelLimit, timeoutMillis);
+    }
+    if (memoryLimit > 0 || memoryReport) {
+      memory = new MemoryMeter(memoryLimit);
+    }
+    if (coverage != null) {
+      coverage.start();
+    }
     try {
-      for (Stmt statement : statements) {
-        execute(statement);
+      if (compileAll) {
+        new Compiler(this).compile(statements).execute(globals);
+      } else {
+        for (Stmt statement : statements) {
+          execute(statement);
+        }
       }
     } catch (RuntimeError error) {
+      LoxMetrics.metrics.runtimeErrors.increment();
       Lox.RuntimeError(error);
+    } finally {
+      budget = null;
+      flushFiles();
+      if (memory != null) {
+        // * One last look, for runs too small to have been measured along the way
+        memory.measure(globals, environment);
+        peakMemory = memory.peak();
+        memory = null;
+      }
+    }
+  }
+
+  /**
+   * * Limits every following run to the given fuel (calls plus loop iterations), wall-clock
+   * * time and live memory. Any of them can be switched off with 0.
+   * @param fuel
+   * @param timeoutMillis
+   * @param memoryBytes
+   */
+  void setLimits(long fuel, long timeoutMillis, long memoryBytes) {
+    this.fuelLimit = fuel;
+    this.timeoutMillis = timeoutMillis;
+    this.memoryLimit = memoryBytes;
+  }
+
+  /*
+   * Measures the memory of every following run, limited or not, for peakMemory.
+   */
+  void setMemoryReport(boolean memoryReport) {
+    this.memoryReport = memoryReport;
+  }
+
+  /**
+   * * The most memory the last measured run was found to keep alive, in estimated bytes.
+   * @return long
+   */
+  long peakMemory() {
+    return peakMemory;
+  }
+
+  /*
+   * Collects coverage of every program resolved from now on into the given counters.
+   */
+  void setCoverage(Coverage coverage) {
+    this.coverage = coverage;
+  }
+
+  Coverage coverage() {
+    return coverage;
+  }
+
+  /*
+   * Skips the tree-walker: programs are compiled as a whole before they run and functions on
+   * their first call. Generator bodies are the exception, they always run interpreted.
+   */
+  void setCompileAll(boolean compileAll) {
+    this.compileAll = compileAll;
+  }
+
+  boolean compilesAll() {
+    return compileAll;
+  }
+
+  /*
+   * Makes code compiled from now on watch its statement lists for breakpoints, so a frame that
+   * is already running compiled code still stops at one set in it. Code compiled before is
+   * thrown away.
+   */
+  void attachDebugger() {
+    debugged = true;
+    for (FunctionProfile profile : profiles.values()) {
+      profile.invalidate();
+    }
+  }
+
+  boolean debugged() {
+    return debugged;
+  }
+
+  /*
+   * Stops the current run at its next budget check. Only runs with limits set are checked.
+   */
+  void cancel() {
+    Budget current = budget;
+    if (current != null) current.cancel();
+  }
+
+  /**
+   * * Charges the current run for a call or a loop iteration, if it runs with a budget.
+   * @param token
+   */
+  void charge(Token token) {
+    Budget current = budget;
+    if (current != null) current.charge(token);
+    MemoryMeter meter = memory;
+    if (meter != null && meter.due()) meter.check(token, globals, environment);
+  }
+
+  void opened(LoxFile file) {
+    openFiles.add(file);
+  }
+
+  void closed(LoxFile file) {
+    openFiles.remove(file);
+  }
+
+  /*
+   * Makes what scripts wrote to files they left open visible, so nothing is lost when the
+   * process exits after the run.
+   */
+  private void flushFiles() {
+    for (LoxFile file : openFiles) {
+      try {
+        file.flush();
+      } catch (IOException e) {
+        System.err.println("Could not flush " + file.path + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /*
+   * Closes every file scripts left open, once the interpreter is done with.
+   */
+  void closeFiles() {
+    for (LoxFile file : openFiles) {
+      try {
+        file.close();
+      } catch (IOException e) {
+        System.err.println("Could not close " + file.path + ": " + e.getMessage());
+      }
     }
+    openFiles.clear();
+  }
+
+  /**
+   * * Charges the current run for memory a script allocated, if it's measured.
+   * @param bytes estimated size
+   */
+  void allocate(long bytes) {
+    MemoryMeter meter = memory;
+    if (meter != null) meter.allocate(bytes);
+  }
+
+  /*
+   * Marks the environment of a running block or call as a root of the memory meter's walk
+   * until the matching leave.
+   */
+  void enter(Environment frame) {
+    MemoryMeter meter = memory;
+    if (meter != null) meter.enter(frame);
+  }
+
+  void leave() {
+    MemoryMeter meter = memory;
+    if (meter != null) meter.leave();
   }
   
   @Override
@@ -51,6 +292,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   @Override
   public Object visitLogicalExpr(Expr.Logical expr) {
     Object left = evaluate(expr.left);
+    if (coverage != null) coverage.count(expr, isTruthy(left));
     if(expr.operator.type == TokenType.OR) {
       if(isTruthy(left)) return left;
     } else {
@@ -67,7 +309,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       throw new RuntimeError(expr.name, "Only instances have fields.");
     }
     Object value = evaluate(expr.value);
-    ((LoxInstance)object).set(expr.name, value);
+    if (((LoxInstance)object).set(expr.name, value)) allocate(MemoryMeter.ENTRY);
     return value;
   }
 
@@ -75,6 +317,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   /*
    * Intreperting this
    */
+  @Override
+  public Object visitSuperExpr(Expr.Super expr) {
+    LoxClass superclass = (LoxClass) environment.getAt(locals.get(expr), "super");
+    LoxInstance object = (LoxInstance) environment.getAt(receivers.get(expr), "this");
+    return superclass.bindSuper(object, expr.method);
+  }
+
   @Override
   public Object visitThisExpr(Expr.This expr) {
     return lookUpVariable(expr.keyword, expr);
@@ -110,8 +359,24 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       return environment.getAt(distance, name.lexeme);
     }
     else {
-      return globals.get(name);
+      return globalCell(expr, name).value;
+    }
+  }
+
+  /**
+   * * Finds the cell of the global a reference resolved to, caching it for the next time.
+   * * Nothing is cached while the global is undefined, so that still fails on every access.
+   * @param expr
+   * @param name
+   * @return Cell
+   */
+  Cell globalCell(Expr expr, Token name) {
+    Cell cell = globalCells.get(expr);
+    if (cell == null) {
+      cell = globals.globalCell(name);
+      globalCells.put(expr, cell);
     }
+    return cell;
   }
 
   /**
@@ -120,12 +385,24 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    * @param operator
    * @param operand
    */
-  private void checkNumberOperand(Token operator, Object operand) {
+  static void checkNumberOperand(Token operator, Object operand) {
     if (operand instanceof Double)
       return;
     throw new RuntimeError(operator, "Operand must be a number.");
   }
 
+  /**
+   * * Runtime check where a dynamic value flows into something declared ': num'
+   * 
+   * @param name
+   * @param value
+   * @return the value as a double
+   */
+  static double checkNumber(Token name, Object value) {
+    if (value instanceof Double) return (double) value;
+    throw new RuntimeError(name, "Expected a number for '" + name.lexeme + "'.");
+  }
+
   /**
    * * Runtime check for binary operands
    * 
@@ -133,7 +410,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    * @param left
    * @param right
    */
-  private void checkNumberOperands(Token operator, Object left, Object right) {
+  static void checkNumberOperands(Token operator, Object left, Object right) {
     if (left instanceof Double && right instanceof Double)
       return;
     throw new RuntimeError(operator, "Operands must be numbers.");
@@ -145,7 +422,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    * @param object
    * @return boolean
    */
-  private boolean isTruthy(Object object) {
+  static boolean isTruthy(Object object) {
     if (object == null)
       return false;
     if (object instanceof Boolean)
@@ -160,11 +437,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    * @param b
    * @return boolean
    */
-  private boolean isEqual(Object a, Object b) {
+  static boolean isEqual(Object a, Object b) {
     if (a == null & b == null)
       return true;
     if (a == null)
       return false;
+    // * Short strings are interned, so equal ones mostly compare by reference
+    if (a instanceof String && b instanceof String)
+      return Interner.same((String) a, (String) b);
+    // * A slice equals any string with the same characters
+    if (a instanceof StringSlice || b instanceof StringSlice)
+      return StringSlice.same(a, b);
 
     return a.equals(b);
   }
@@ -175,7 +458,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    * @param object
    * @return String
    */
-  private String stringify(Object object) {
+  static String stringify(Object object) {
     if (object == null)
       return "nil";
     if (object instanceof Double) {
@@ -199,9 +482,20 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   }
 
   private void execute(Stmt stmt) {
+    LoxMetrics.metrics.statementsExecuted.increment();
+    if (coverage != null) coverage.count(stmt);
     stmt.accept(this);
   }
 
+  /*
+   * Counts a statement that a specialized loop does the work of, as if execute had run it, so
+   * the metrics and coverage are the same as for the plain loop.
+   */
+  private void counted(Stmt stmt) {
+    LoxMetrics.metrics.statementsExecuted.increment();
+    if (coverage != null) coverage.count(stmt);
+  }
+
   /*
    * The resolver hands that number of environments to the interpreter by calling this:
    */
@@ -209,6 +503,261 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     locals.put(expr, depth);
   }
 
+  void receiver(Expr.Super expr, int depth) {
+    receivers.put(expr, depth);
+  }
+
+  /*
+   * The resolver calls this for every local declaration that a closure captures.
+   */
+  void capture(Token declaration) {
+    captured.add(declaration);
+  }
+
+  /*
+   * The type checker calls these for typed declarations and for expressions it proved numeric.
+   */
+  void number(Token declaration) {
+    numbers.add(declaration);
+  }
+
+  void numeric(Expr expr) {
+    numeric.add(expr);
+  }
+
+  boolean isNumber(Token declaration) {
+    return numbers.contains(declaration);
+  }
+
+  boolean isNumeric(Expr expr) {
+    return numeric.contains(expr);
+  }
+
+  void upvalues(Stmt.Function function, Map<String, Integer> captures) {
+    upvalues.put(function, captures);
+  }
+
+  /**
+   * * Binds a new name in the given environment, boxing it in a Cell when a closure captures it.
+   * @param environment
+   * @param name
+   * @param value
+   */
+  void define(Environment environment, Token name, Object value) {
+    if (environment == globals) {
+      globals.defineGlobal(name.lexeme, value);
+    } else if (numbers.contains(name)) {
+      // * A closure shares the NumberCell itself, so it never needs a Cell around it
+      environment.define(name.lexeme, new NumberCell(checkNumber(name, value)));
+    } else if (captured.contains(name)) {
+      environment.define(name.lexeme, new Cell(value));
+    } else {
+      environment.define(name.lexeme, value);
+    }
+  }
+
+  /**
+   * * Builds the flat closure of a function declared in the given environment. Only the
+   * * variables the function captures are copied in, and captured locals are shared through
+   * * their cells. A function that captures nothing simply closes over the globals.
+   * @param declaration
+   * @param environment
+   * @return Environment
+   */
+  private Environment closureFor(Stmt.Function declaration, Environment environment) {
+    Map<String, Integer> captures = upvalues.get(declaration);
+    if (captures == null) return globals;
+
+    Environment closure = new Environment(globals);
+    allocate(MemoryMeter.ENVIRONMENT + MemoryMeter.ENTRY * captures.size());
+    for (Map.Entry<String, Integer> upvalue : captures.entrySet()) {
+      String name = upvalue.getKey();
+      closure.define(name, environment.getRawAt(upvalue.getValue(), name));
+    }
+    return closure;
+  }
+
+  void countedLoop(Stmt.While stmt, CountedLoop loop) {
+    countedLoops.put(stmt, loop);
+  }
+
+  /*
+   * Lookups the compiler uses to bake resolution results into the code it generates.
+   */
+  Integer distance(Expr expr) {
+    return locals.get(expr);
+  }
+
+  Integer receiver(Expr.Super expr) {
+    return receivers.get(expr);
+  }
+
+  CountedLoop countedLoop(Stmt.While stmt) {
+    return countedLoops.get(stmt);
+  }
+
+  private FunctionProfile profileOf(Stmt.Function declaration) {
+    return profiles.computeIfAbsent(declaration, FunctionProfile::new);
+  }
+
+  /*
+   * Keeps a function in the tree-walker while a breakpoint is set in its body, throwing away
+   * its compiled code. Every other function stays compiled.
+   */
+  void armBreakpoint(Stmt.Function declaration) {
+    profileOf(declaration).arm();
+  }
+
+  /*
+   * Lets the function be compiled again once it's hot, when this was its last breakpoint.
+   */
+  void disarmBreakpoint(Stmt.Function declaration) {
+    profileOf(declaration).disarm();
+  }
+
+  /*
+   * The scope of the statement being interpreted, for the debugger.
+   */
+  Environment currentEnvironment() {
+    return environment;
+  }
+
+  void setMemoize(boolean memoize) {
+    this.memoize = memoize;
+  }
+
+  boolean memoizes() {
+    return memoize;
+  }
+
+  /*
+   * The purity analysis calls this for every function whose calls can be memoized.
+   */
+  void memoize(Stmt.Function function) {
+    FunctionProfile profile = profileOf(function);
+    if (profile.memo == null) profile.memo = new MemoCache();
+  }
+
+  /*
+   * Drops the memo cache of a function that was memoized before a later program rebound one of
+   * its callees.
+   */
+  void unmemoize(Stmt.Function function) {
+    profileOf(function).memo = null;
+  }
+
+  /*
+   * The purity analysis for the next program, which knows about the ones run before it.
+   */
+  PurityAnalyzer purity() {
+    if (purity == null) purity = new PurityAnalyzer(this);
+    return purity;
+  }
+
+  /**
+   * * Runs an interpreted function body, charging the loops in it to the function's profile.
+   * @param profile
+   * @param body
+   * @param environment
+   */
+  void executeBody(FunctionProfile profile, List<Stmt> body, Environment environment) {
+    FunctionProfile caller = this.profile;
+    this.profile = profile;
+    try {
+      executeBlock(body, environment);
+    } finally {
+      this.profile = caller;
+    }
+  }
+
+  /*
+   * The resolver calls this for every block or function whose scope no closure can see.
+   */
+  void recycle(Stmt scope) {
+    recyclable.add(scope);
+  }
+
+  boolean isRecyclable(Stmt scope) {
+    return recyclable.contains(scope);
+  }
+
+  void generator(Stmt.Function function) {
+    generators.add(function);
+  }
+
+  boolean isGenerator(Stmt.Function function) {
+    return generators.contains(function);
+  }
+
+  void suspends(Stmt stmt) {
+    suspending.add(stmt);
+  }
+
+  /*
+   * Whether a yield is nested in the statement, so a generator has to step through it.
+   */
+  boolean isSuspending(Stmt stmt) {
+    return suspending.contains(stmt);
+  }
+
+  /*
+   * Run one statement or evaluate one expression in the given environment, for generators,
+   * which run their bodies a piece at a time.
+   */
+  void executeIn(Stmt stmt, Environment environment) {
+    Environment previous = this.environment;
+    try {
+      this.environment = environment;
+      execute(stmt);
+    } finally {
+      this.environment = previous;
+    }
+  }
+
+  Object evaluateIn(Expr expr, Environment environment) {
+    Environment previous = this.environment;
+    try {
+      this.environment = environment;
+      return evaluate(expr);
+    } finally {
+      this.environment = previous;
+    }
+  }
+
+  /*
+   * How many environments wait in the pool, so a test can tell whether a frame made it back.
+   */
+  int pooledEnvironments() {
+    return environmentPool.size();
+  }
+
+  /**
+   * * Hands out a pooled environment, falling back to a fresh one when the pool is empty.
+   * * Only scopes marked recyclable by the resolver may use this.
+   * @param enclosing
+   * @return Environment
+   */
+  Environment acquireEnvironment(Environment enclosing) {
+    Environment environment = environmentPool.poll();
+    if (environment == null) {
+      return new Environment(enclosing);
+    }
+    environment.reset(enclosing);
+    return environment;
+  }
+
+  /**
+   * * Returns the environment of an exited non-escaping scope to the pool.
+   * * The bindings are dropped right away so a pooled frame doesn't keep values alive.
+   * @param environment
+   */
+  void releaseEnvironment(Environment environment) {
+    environment.reset(null);
+    if (environmentPool.size() < MAX_POOLED_ENVIRONMENTS) {
+      environmentPool.push(environment);
+    }
+  }
+
   /**
    * * We create new environment for the block scope
    * @param statements
@@ -216,6 +765,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    */
   void executeBlock(List<Stmt> statements, Environment environment) {
     Environment previous = this.environment;
+    enter(environment);
     try {
       this.environment = environment;
       for(Stmt statement : statements) {
@@ -225,6 +775,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     finally {
       // * Restore the previous environment
       this.environment = previous;
+      leave();
     }
   }
 
@@ -233,7 +784,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    */
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
-    executeBlock(stmt.statements, new Environment(environment));
+    if (!isRecyclable(stmt)) {
+      executeBlock(stmt.statements, new Environment(environment));
+      return null;
+    }
+
+    // * Nothing can hold on to this scope after it exits, so its frame goes back to the pool
+    Environment blockEnvironment = acquireEnvironment(environment);
+    try {
+      executeBlock(stmt.statements, blockEnvironment);
+    } finally {
+      releaseEnvironment(blockEnvironment);
+    }
     return null;
   }
 
@@ -244,19 +806,45 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    */
   @Override 
   public Void visitClassStmt(Stmt.Class stmt) {
-    environment.define(stmt.name.lexeme, null);
+    Object superclass = null;
+    if (stmt.superclass != null) {
+      superclass = evaluate(stmt.superclass);
+    }
+    declareClass(stmt, superclass, environment);
+    return null;
+  }
+
+  /**
+   * * Creates the class. Methods of a subclass close over an extra environment binding "super",
+   * * the same scope the resolver put around them.
+   * @param stmt
+   * @param superclass the evaluated superclass expression, null if there is none
+   * @param environment
+   */
+  void declareClass(Stmt.Class stmt, Object superclass, Environment environment) {
+    if (stmt.superclass != null && !(superclass instanceof LoxClass)) {
+      throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+    }
+
+    define(environment, stmt.name, null);
+
+    Environment methodEnvironment = environment;
+    if (superclass != null) {
+      methodEnvironment = new Environment(environment);
+      methodEnvironment.define("super", superclass);
+    }
 
     Map<String, LoxFunction> methods = new HashMap<>();
     for(Stmt.Function method : stmt.methods) {
       // * Run time representation of lox function
-      LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+      LoxFunction function = new LoxFunction(method, closureFor(method, methodEnvironment),
+          method.name.lexeme.equals("init"), profileOf(method));
       methods.put(method.name.lexeme, function);
     }
 
     // * Run time representation of lox class
-    LoxClass klass = new LoxClass(stmt.name.lexeme, methods);
+    LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
     environment.assign(stmt.name, klass);
-    return null;
   }
 
   @Override
@@ -271,16 +859,24 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
    */
   @Override
   public Void visitFunctionStmt(Stmt.Function stmt) {
-    // * this is the env that is active when the function is declared not when
-    // * it's called. It represents the lexical scope surrounding the function declaration.
-    LoxFunction function = new LoxFunction(stmt, environment, false);
-    environment.define(stmt.name.lexeme, function);
+    declareFunction(stmt, environment);
     return null;
   }
 
+  void declareFunction(Stmt.Function stmt, Environment environment) {
+    // * The closure is built from the env that is active when the function is declared not when
+    // * it's called. The name is bound first so a recursive function can capture itself.
+    define(environment, stmt.name, null);
+    LoxFunction function = new LoxFunction(stmt, closureFor(stmt, environment), false, profileOf(stmt));
+    allocate(MemoryMeter.CLOSURE);
+    environment.assignAt(0, stmt.name, function);
+  }
+
   @Override
   public Void visitIfStmt(Stmt.If stmt) {
-    if(isTruthy(evaluate(stmt.condition))) {
+    boolean truthy = isTruthy(evaluate(stmt.condition));
+    if (coverage != null) coverage.count(stmt, truthy);
+    if(truthy) {
       execute(stmt.thenBranch);
     }
     else if(stmt.elseBranch != null) {
@@ -311,18 +907,64 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       value = evaluate(stmt.initializer);
     }
 
-    environment.define(stmt.name.lexeme, value);
+    define(environment, stmt.name, value);
     return null;
   }
 
+  @Override
+  public Void visitYieldStmt(Stmt.Yield stmt) {
+    // * LoxGenerator runs every yield itself
+    throw new RuntimeError(stmt.keyword, "Can't yield outside of a generator.");
+  }
+
   @Override
   public Void visitWhileStmt(Stmt.While stmt) {
+    CountedLoop loop = countedLoops.get(stmt);
+    if (loop != null && environment.getAt(0, loop.name.lexeme) instanceof Double) {
+      executeCountedLoop(loop);
+      return null;
+    }
+
     while(isTruthy(evaluate(stmt.condtion))) {
       execute(stmt.body);
+      if (profile != null) profile.countBackEdge(this);
+      charge(stmt.keyword);
     }
     return null;
   }
 
+  /**
+   * * Runs a counted loop with its counter unboxed. The block wrapping body and increment
+   * * declares nothing, so a single environment serves every iteration.
+   * @param loop
+   */
+  private void executeCountedLoop(CountedLoop loop) {
+    double index = (double) environment.getAt(0, loop.name.lexeme);
+    Environment iteration = acquireEnvironment(environment);
+    try {
+      while (true) {
+        // * A debugger may look at the counter whenever the body pauses
+        if (loop.materialize || debugged) {
+          environment.assignAt(0, loop.name, index);
+        }
+        Object limit = evaluate(loop.limit);
+        if (!(limit instanceof Double)) {
+          throw new RuntimeError(loop.operator, "Operands must be numbers.");
+        }
+        if (!loop.test(index, (double) limit)) break;
+
+        counted(loop.block);
+        executeBlock(loop.body, iteration);
+        counted(loop.increment);
+        index += loop.step;
+        if (profile != null) profile.countBackEdge(this);
+        charge(loop.keyword);
+      }
+    } finally {
+      releaseEnvironment(iteration);
+    }
+  }
+
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
@@ -332,7 +974,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       environment.assignAt(distance, expr.name, value);
     }
     else {
-      environment.assign(expr.name, value);
+      globalCell(expr, expr.name).value = value;
     }
 
     return value;
@@ -360,23 +1002,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       case BANG_EQUAL:
         return !isEqual(left, right);
       case EQUAL_EQUAL:
-        return !isEqual(left, right);
+        return isEqual(left, right);
       case MINUS:
         checkNumberOperands(expr.operator, left, right);
         return (double) left - (double) right;
       case PLUS:
-        if (left instanceof Double && right instanceof Double) {
-          return (double) left + (double) right;
-        }
-        if (left instanceof String && right instanceof String) {
-          return (String) left + (String) right;
-        }
-        if (left instanceof String && right instanceof Double) {
-          return (String) left + stringify(right);
-        } else if (left instanceof Double && right instanceof String) {
-          return stringify(left) + (String) right;
-        }
-        throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+        return add(expr.operator, left, right);
       case SLASH:
         checkNumberOperands(expr.operator, left, right);
         return (double) left / (double) right;
@@ -392,6 +1023,32 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return null;
   }
 
+  /**
+   * * '+' adds two numbers, concatenates two strings, and stringifies a number next to a string.
+   * @param operator
+   * @param left
+   * @param right
+   * @return Object
+   */
+  Object add(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double) {
+      return (double) left + (double) right;
+    }
+    // * Strings may be slices, which turn into a String here
+    String result;
+    if (left instanceof CharSequence && right instanceof CharSequence) {
+      result = left.toString() + right.toString();
+    } else if (left instanceof CharSequence && right instanceof Double) {
+      result = left.toString() + stringify(right);
+    } else if (left instanceof Double && right instanceof CharSequence) {
+      result = stringify(left) + right.toString();
+    } else {
+      throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+    allocate(MemoryMeter.sizeOf(result));
+    return Interner.intern(result);
+  }
+
   @Override
   public Object visitCallExpr(Expr.Call expr) {
     Object callee = evaluate(expr.callee);
@@ -401,20 +1058,51 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       arguments.add(evaluate(argument));
     }
 
+    return call(callee, arguments, expr.paren);
+  }
+
+  /**
+   * * Calls a Lox value after checking it is callable and gets the right number of arguments.
+   * @param callee
+   * @param arguments
+   * @param paren
+   * @return Object
+   */
+  Object call(Object callee, List<Object> arguments, Token paren) {
     // * Check if valid callee
     if(!(callee instanceof LoxCallable)) {
-      throw new RuntimeError(expr.paren, "Can only call functions and classes");
+      throw new RuntimeError(paren, "Can only call functions and classes");
     }
 
     LoxCallable function = (LoxCallable)callee;
     
     // * Check 'Arity' of the function
     if(arguments.size() != function.arity()) {
-      throw new RuntimeError(expr.paren,
+      throw new RuntimeError(paren,
           "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
     }
 
-    return function.call(this, arguments);
+    charge(paren);
+    LoxMetrics.metrics.functionCalls.increment();
+    // * Every call, not only new maximums of this interpreter, since a reset can come in between;
+    // * it only writes when the depth is a new maximum
+    LoxMetrics.metrics.maxCallDepth.accumulate(++callDepth);
+    try {
+      return function.call(this, arguments);
+    } catch (RuntimeError error) {
+      if (error.token == null) throw new RuntimeError(paren, error.getMessage());
+      error.unwound(nameOf(function), paren);
+      throw error;
+    } finally {
+      callDepth--;
+    }
+  }
+
+  private static String nameOf(LoxCallable function) {
+    if (function instanceof LoxFunction) return ((LoxFunction) function).name() + "()";
+    if (function instanceof LoxClass) return ((LoxClass) function).name + "()";
+    if (function instanceof Natives.Native) return ((Natives.Native) function).name + "()";
+    return "<native fn>";
   }
 
   /*
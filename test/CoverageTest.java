@@ -0,0 +1,83 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+
+/*
+ * Checks that loops run as counted loops report the same coverage and statement counts as the
+ * same loops run the plain way, in both tiers. Writing the increment as 1 + i keeps a loop from
+ * being specialized.
+ *
+ *   java -cp <classes> lox.CoverageTest
+ */
+public class CoverageTest {
+  private static final String PROGRAM =
+      "var s = 0;\n" +
+      "for (var i = 0; i < 5; i = i + 1)\n" +
+      "  s = s + i;\n" +
+      "fun f() {\n" +
+      "  for (var j = 0; j < 4; j = j + 1) {\n" +
+      "    s = s + j;\n" +
+      "  }\n" +
+      "}\n" +
+      "f();\n" +
+      "print s;\n";
+
+  public static void main(String[] args) throws IOException {
+    String plain = PROGRAM.replace("i = i + 1", "i = 1 + i").replace("j = j + 1", "j = 1 + j");
+
+    int failures = 0;
+    for (boolean compileAll : new boolean[] { false, true }) {
+      String tier = compileAll ? "compiled" : "interpreted";
+      String[] expected = run(plain, compileAll);
+      String[] actual = run(PROGRAM, compileAll);
+      if (!actual[0].equals(expected[0])) {
+        System.out.println(tier + ": expected coverage\n" + expected[0] + "got\n" + actual[0]);
+        failures++;
+      }
+      if (!actual[1].equals(expected[1])) {
+        System.out.println(tier + ": expected " + expected[1] + " statements, got " + actual[1]);
+        failures++;
+      }
+    }
+
+    if (failures > 0) {
+      System.out.println(failures + " coverage checks failed.");
+      System.exit(1);
+    }
+    System.out.println("All coverage checks passed.");
+  }
+
+  /**
+   * * Runs the program with coverage on.
+   * @param source
+   * @param compileAll
+   * @return the line counts of its lcov trace, and the number of statements it executed
+   */
+  private static String[] run(String source, boolean compileAll) throws IOException {
+    Interpreter interpreter = new Interpreter();
+    interpreter.setCompileAll(compileAll);
+    Coverage coverage = new Coverage();
+    interpreter.setCoverage(coverage);
+
+    PrintStream out = System.out;
+    long before = LoxMetrics.metrics.getStatementsExecuted();
+    try {
+      System.setOut(new PrintStream(new ByteArrayOutputStream(), true));
+      Lox.run(source, interpreter);
+    } finally {
+      System.setOut(out);
+    }
+    long statements = LoxMetrics.metrics.getStatementsExecuted() - before;
+
+    StringWriter trace = new StringWriter();
+    coverage.write(trace, "program.lox");
+    StringBuilder lines = new StringBuilder();
+    for (String line : trace.toString().split("\n")) {
+      if (line.startsWith("DA:")) lines.append(line).append('\n');
+    }
+    return new String[] { lines.toString(), Long.toString(statements) };
+  }
+}
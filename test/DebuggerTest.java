@@ -0,0 +1,96 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Runs small programs under the debugger and checks the lines it pauses at.
+ *
+ *   java -cp <classes> lox.DebuggerTest
+ */
+public class DebuggerTest {
+  /*
+   * Records the lines a run paused at, in order. At the first pause it can clear the breakpoint
+   * and step instead.
+   */
+  private static class Session implements Debugger.Listener {
+    final List<Integer> paused = new ArrayList<>();
+    boolean step = false;
+
+    @Override
+    public void paused(Debugger debugger, int line, Environment environment) {
+      if (step && paused.isEmpty()) {
+        debugger.clearBreakpoint(line);
+        debugger.step();
+      }
+      paused.add(line);
+    }
+  }
+
+  public static void main(String[] args) {
+    int failures = 0;
+
+    // * The body of a for loop that runs as a counted loop
+    failures += check("break in a counted loop",
+        "for (var i = 0; i < 3; i = i + 1)\n" +
+        "  print i;\n",
+        2, "[2, 2, 2]");
+    failures += check("break in a counted loop's block",
+        "fun f() {\n" +
+        "  for (var i = 0; i < 2; i = i + 1) {\n" +
+        "    print i;\n" +
+        "  }\n" +
+        "}\n" +
+        "f();\n",
+        3, "[3, 3]");
+
+    // * Stepping out of g has to stop in f's frame, which was already running compiled
+    String caller =
+        "fun g(n) {\n" +
+        "  return n;\n" +
+        "}\n" +
+        "fun f() {\n" +
+        "  var s = 0;\n" +
+        "  for (var i = 0; i < 3; i = i + 1) {\n" +
+        "    s = s + g(i);\n" +
+        "  }\n" +
+        "}\n" +
+        "f();\n";
+    failures += check("step out into a compiled frame", caller, 2, true, true, "[2, 6]");
+    failures += check("step out into an interpreted frame", caller, 2, false, true, "[2, 6]");
+
+    if (failures > 0) {
+      System.out.println(failures + " debugger checks failed.");
+      System.exit(1);
+    }
+    System.out.println("All debugger checks passed.");
+  }
+
+  private static int check(String name, String source, int breakpoint, String expected) {
+    return check(name, source, breakpoint, false, false, expected);
+  }
+
+  private static int check(String name, String source, int breakpoint, boolean compileAll, boolean step,
+      String expected) {
+    Session session = new Session();
+    session.step = step;
+    Interpreter interpreter = new Interpreter();
+    interpreter.setCompileAll(compileAll);
+    Map<Stmt, Integer> lines = new HashMap<>();
+    Parser parser = new Parser(new Scanner(source).scanTokens());
+    parser.recordLines(lines);
+    List<Stmt> program = parser.parse();
+    new Resolver(interpreter).resolveProgram(program);
+
+    Debugger debugger = new Debugger(interpreter, program, lines, session);
+    debugger.setBreakpoint(breakpoint);
+    interpreter.interpret(program);
+
+    String actual = session.paused.toString();
+    if (actual.equals(expected)) return 0;
+    System.out.println(name + ": expected pauses at " + expected + ", got " + actual);
+    return 1;
+  }
+}
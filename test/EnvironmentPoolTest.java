@@ -0,0 +1,52 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/*
+ * Checks that a pooled call frame goes back to the pool however the call ends.
+ *
+ *   java -cp <classes> lox.EnvironmentPoolTest
+ */
+public class EnvironmentPoolTest {
+  public static void main(String[] args) {
+    int failures = 0;
+
+    failures += check("call that returns",
+        "fun f(a: num) {\n" +
+        "  return a;\n" +
+        "}\n" +
+        "f(1);\n");
+    failures += check("call that fails to bind a typed parameter",
+        "fun f(a: num) {\n" +
+        "  return a;\n" +
+        "}\n" +
+        "var x = \"text\";\n" +
+        "f(x);\n");
+
+    if (failures > 0) {
+      System.out.println(failures + " environment pool checks failed.");
+      System.exit(1);
+    }
+    System.out.println("All environment pool checks passed.");
+  }
+
+  private static int check(String name, String source) {
+    Interpreter interpreter = new Interpreter();
+    PrintStream out = System.out;
+    PrintStream err = System.err;
+    try {
+      System.setOut(new PrintStream(new ByteArrayOutputStream(), true));
+      System.setErr(new PrintStream(new ByteArrayOutputStream(), true));
+      Lox.run(source, interpreter);
+    } finally {
+      System.setOut(out);
+      System.setErr(err);
+    }
+
+    if (interpreter.pooledEnvironments() == 1) return 0;
+    System.out.println(name + ": expected the frame back in the pool, found "
+        + interpreter.pooledEnvironments() + " pooled environments");
+    return 1;
+  }
+}
@@ -0,0 +1,87 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/*
+ * Checks when errors in a deferred function body are reported: on the function's first call,
+ * after the statements before it ran, and not at all when it's never called.
+ *
+ *   java -cp <classes> lox.LazyBodyTest
+ */
+public class LazyBodyTest {
+  public static void main(String[] args) {
+    int failures = 0;
+
+    failures += check("syntax error, called",
+        "print \"before\";\n" +
+        "fun f() {\n" +
+        "  return 1 +;\n" +
+        "}\n" +
+        "print \"ran\";\n" +
+        "f();\n" +
+        "print \"after\";\n",
+        "before\nran\n", true);
+    failures += check("syntax error, never called",
+        "fun f() {\n" +
+        "  return 1 +;\n" +
+        "}\n" +
+        "print \"ran\";\n",
+        "ran\n", false);
+    failures += check("resolution error, called",
+        "fun g() {\n" +
+        "  var a = 1;\n" +
+        "  var a = 2;\n" +
+        "}\n" +
+        "print \"ran\";\n" +
+        "g();\n",
+        "ran\n", true);
+    failures += check("type error, called",
+        "fun h(): num {\n" +
+        "  return \"text\";\n" +
+        "}\n" +
+        "print \"ran\";\n" +
+        "h();\n",
+        "ran\n", true);
+
+    if (failures > 0) {
+      System.out.println(failures + " deferred body checks failed.");
+      System.exit(1);
+    }
+    System.out.println("All deferred body checks passed.");
+  }
+
+  /**
+   * * Runs the program the way the command line does and compares what it printed, and whether
+   * * a compile error was reported, with what's expected.
+   * @param name
+   * @param source
+   * @param output what the program prints before it stops
+   * @param error whether a compile error comes up while it runs
+   * @return the number of failures
+   */
+  private static int check(String name, String source, String output, boolean error) {
+    PrintStream out = System.out;
+    PrintStream err = System.err;
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    Lox.hadError = false;
+    Lox.hadRuntimeError = false;
+    try {
+      System.setOut(new PrintStream(printed, true));
+      System.setErr(new PrintStream(new ByteArrayOutputStream(), true));
+      Lox.run(source, new Interpreter());
+    } finally {
+      System.setOut(out);
+      System.setErr(err);
+    }
+
+    String text = printed.toString().replace("\r\n", "\n");
+    String marker = "---- Output ----\n";
+    int start = text.indexOf(marker);
+    String actual = start == -1 ? "<did not run>" : text.substring(start + marker.length());
+    if (actual.equals(output) && Lox.hadError == error && Lox.hadRuntimeError == error) return 0;
+    System.out.println(name + ": expected " + output.replace("\n", "|") + " with error " + error
+        + ", got " + actual.replace("\n", "|") + " with error " + Lox.hadError);
+    return 1;
+  }
+}
@@ -0,0 +1,101 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Fuzzes LoxDocument: applies random edits to a document and checks after every one that its
+ * declarations and diagnostics match those of a document built from scratch from the same text.
+ *
+ *   java -cp <classes> lox.LoxDocumentTest [seeds] [edits per seed]
+ */
+public class LoxDocumentTest {
+  // * Pieces of text the edits insert, picked to open and close comments, strings and blocks
+  private static final String[] PIECES = {
+    "//", "/*", "*/", "\"", "{", "}", "(", ")", ";", "\n", " ", "fun", "var", "return",
+    "f", "x", "1", "+", "=", "print x;", "fun g() {", "class C {}", "var y = 2;\n",
+  };
+
+  public static void main(String[] args) {
+    int seeds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    int edits = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+    // * A line comment typed at the end of a segment runs on into the next one
+    int failures = check(functions(), 25, 0, "//");
+    for (int seed = 1; seed <= seeds; seed++) {
+      failures += fuzz(seed, edits);
+    }
+    if (failures > 0) {
+      System.out.println(failures + " edits disagreed with a full rebuild.");
+      System.exit(1);
+    }
+    System.out.println("All " + seeds * edits + " edits matched a full rebuild.");
+  }
+
+  private static String functions() {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < 6; i++) {
+      source.append("fun f").append(i).append("() {\n  return ").append(i).append(";\n}\n");
+    }
+    return source.toString();
+  }
+
+  private static int check(String source, int offset, int removed, String inserted) {
+    LoxDocument document = new LoxDocument(source, new Interpreter());
+    document.edit(offset, removed, inserted);
+    String expected = describe(new LoxDocument(document.text(), new Interpreter()));
+    String actual = describe(document);
+    if (expected.equals(actual)) return 0;
+    System.out.println("edit(" + offset + ", " + removed + ", " + quote(inserted) + ") on " + quote(source));
+    System.out.println("  expected " + expected);
+    System.out.println("  actual   " + actual);
+    return 1;
+  }
+
+  private static int fuzz(int seed, int edits) {
+    Random random = new Random(seed);
+    LoxDocument document = new LoxDocument(functions(), new Interpreter());
+
+    int failures = 0;
+    for (int i = 0; i < edits; i++) {
+      String text = document.text();
+      int offset = random.nextInt(text.length() + 1);
+      int removed = random.nextInt(3) == 0 ? random.nextInt(Math.min(8, text.length() - offset) + 1) : 0;
+      String inserted = removed > 0 && random.nextBoolean() ? "" : PIECES[random.nextInt(PIECES.length)];
+      document.edit(offset, removed, inserted);
+
+      LoxDocument fresh = new LoxDocument(document.text(), new Interpreter());
+      String expected = describe(fresh);
+      String actual = describe(document);
+      if (!expected.equals(actual)) {
+        if (failures++ == 0) {
+          System.out.println("Seed " + seed + ", edit " + i + ": edit(" + offset + ", " + removed + ", "
+              + quote(inserted) + ") on " + quote(text));
+          System.out.println("  expected " + expected);
+          System.out.println("  actual   " + actual);
+        }
+      }
+    }
+    return failures;
+  }
+
+  /*
+   * The declarations by kind and name, then the diagnostics.
+   */
+  private static String describe(LoxDocument document) {
+    List<String> parts = new ArrayList<>();
+    for (Stmt stmt : document.statements()) {
+      String kind = stmt.getClass().getSimpleName();
+      if (stmt instanceof Stmt.Function) kind += " " + ((Stmt.Function) stmt).name.lexeme;
+      if (stmt instanceof Stmt.Class) kind += " " + ((Stmt.Class) stmt).name.lexeme;
+      if (stmt instanceof Stmt.Var) kind += " " + ((Stmt.Var) stmt).name.lexeme;
+      parts.add(kind);
+    }
+    return parts + " " + document.diagnostics();
+  }
+
+  private static String quote(String text) {
+    return "\"" + text.replace("\n", "\\n") + "\"";
+  }
+}
@@ -0,0 +1,85 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/*
+ * Runs programs one after the other on the same interpreter, the way the REPL does, with
+ * memoization on, and checks that a memoized function sees callees rebound by a later program.
+ *
+ *   java -cp <classes> lox.MemoizeTest
+ */
+public class MemoizeTest {
+  private static final String DECLARE =
+      "fun g(n) {\n" +
+      "  return 1;\n" +
+      "}\n" +
+      "fun f(n) {\n" +
+      "  return g(n) + n;\n" +
+      "}\n" +
+      "print f(1);\n";
+
+  public static void main(String[] args) {
+    int failures = 0;
+
+    failures += check("callee declared again",
+        new String[] { DECLARE, "fun g(n) { return 10; }\nprint f(1);\n" },
+        "2\n11\n");
+    failures += check("callee assigned",
+        new String[] { DECLARE, "fun h(n) { return 20; }\ng = h;\nprint f(1);\n" },
+        "2\n21\n");
+    failures += check("unrelated function declared",
+        new String[] { DECLARE, "fun k(n) { return 30; }\nprint f(1);\n" },
+        "2\n2\n");
+
+    if (failures > 0) {
+      System.out.println(failures + " memoization checks failed.");
+      System.exit(1);
+    }
+    System.out.println("All memoization checks passed.");
+  }
+
+  private static int check(String name, String[] lines, String expected) {
+    return check(name + ", interpreted", lines, false, expected)
+        + check(name + ", compiled", lines, true, expected);
+  }
+
+  private static int check(String name, String[] lines, boolean compileAll, String expected) {
+    Lox.hadError = false;
+    Lox.hadRuntimeError = false;
+    Interpreter interpreter = new Interpreter();
+    interpreter.setMemoize(true);
+    interpreter.setCompileAll(compileAll);
+    StringBuilder actual = new StringBuilder();
+    for (String line : lines) {
+      actual.append(run(line, interpreter));
+    }
+
+    if (actual.toString().equals(expected) && !Lox.hadError && !Lox.hadRuntimeError) return 0;
+    System.out.println(name + ": expected " + expected.replace("\n", "|") + ", got "
+        + actual.toString().replace("\n", "|"));
+    return 1;
+  }
+
+  /**
+   * * Runs one program on the interpreter.
+   * @param source
+   * @param interpreter
+   * @return what the program printed
+   */
+  private static String run(String source, Interpreter interpreter) {
+    PrintStream out = System.out;
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    try {
+      System.setOut(new PrintStream(printed, true));
+      Lox.run(source, interpreter);
+    } finally {
+      System.setOut(out);
+    }
+
+    String text = printed.toString().replace("\r\n", "\n");
+    String marker = "---- Output ----\n";
+    int start = text.indexOf(marker);
+    return start == -1 ? "<did not run>\n" : text.substring(start + marker.length());
+  }
+}
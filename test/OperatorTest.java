@@ -0,0 +1,88 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/*
+ * Checks what the operators evaluate to, in the tree-walker and in the compiled tier.
+ *
+ *   java -cp <classes> lox.OperatorTest
+ */
+public class OperatorTest {
+  public static void main(String[] args) {
+    int failures = 0;
+
+    failures += check("equality",
+        "print 1 == 1;\n" +
+        "print 1 == 2;\n" +
+        "print \"a\" == \"a\";\n" +
+        "print \"a\" == \"b\";\n" +
+        "print nil == nil;\n" +
+        "print nil == false;\n" +
+        "print 1 != 1;\n" +
+        "print 1 != 2;\n",
+        "true\nfalse\ntrue\nfalse\ntrue\nfalse\nfalse\ntrue\n");
+    failures += check("equality of typed numbers",
+        "fun same(a: num, b: num) {\n" +
+        "  print a == b;\n" +
+        "  print a != b;\n" +
+        "}\n" +
+        "same(1, 1);\n" +
+        "same(1, 2);\n",
+        "true\nfalse\nfalse\ntrue\n");
+    failures += check("comparison",
+        "print 1 <= 1;\n" +
+        "print 2 <= 1;\n" +
+        "print 1 >= 2;\n" +
+        "print 2 >= 2;\n" +
+        "print 1 < 2;\n" +
+        "print 1 > 2;\n",
+        "true\nfalse\nfalse\ntrue\ntrue\nfalse\n");
+    failures += check("counted loops with inclusive bounds",
+        "for (var i = 1; i <= 3; i = i + 1) print i;\n" +
+        "for (var i = 3; i >= 1; i = i - 1) print i;\n",
+        "1\n2\n3\n3\n2\n1\n");
+
+    // * A short string made without going through the interner still equals its literal
+    String built = new StringBuilder("ab").append('c').toString();
+    if (!Interpreter.isEqual(built, "abc") || Interpreter.isEqual(built, "abd")) {
+      System.out.println("equality of a string that wasn't interned: wrong answer");
+      failures++;
+    }
+
+    if (failures > 0) {
+      System.out.println(failures + " operator checks failed.");
+      System.exit(1);
+    }
+    System.out.println("All operator checks passed.");
+  }
+
+  private static int check(String name, String source, String expected) {
+    return check(name + ", interpreted", source, false, expected)
+        + check(name + ", compiled", source, true, expected);
+  }
+
+  private static int check(String name, String source, boolean compileAll, String expected) {
+    PrintStream out = System.out;
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    Lox.hadError = false;
+    Lox.hadRuntimeError = false;
+    try {
+      System.setOut(new PrintStream(printed, true));
+      Interpreter interpreter = new Interpreter();
+      interpreter.setCompileAll(compileAll);
+      Lox.run(source, interpreter);
+    } finally {
+      System.setOut(out);
+    }
+
+    String text = printed.toString().replace("\r\n", "\n");
+    String marker = "---- Output ----\n";
+    int start = text.indexOf(marker);
+    String actual = start == -1 ? "<did not run>" : text.substring(start + marker.length());
+    if (actual.equals(expected) && !Lox.hadError && !Lox.hadRuntimeError) return 0;
+    System.out.println(name + ": expected " + expected.replace("\n", "|") + ", got "
+        + actual.replace("\n", "|"));
+    return 1;
+  }
+}
@@ -2,48 +2,77 @@ package lox.tool;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+/*
+ * Writes Expr.java and Stmt.java from the node specs below. A spec lists the constructor fields
+ * after the colon and, after a '|', mutable slots where a later pass can keep per-node runtime
+ * data: resolved depths, caches and counters.
+ *
+ * By default the nodes are static classes extending an abstract base, and slots are left out.
+ * With --sealed the base is a sealed interface with final node classes instead, every node
+ * carries its slots and a compact kind tag, so code can switch on kind() or on the sealed type
+ * rather than going through the visitor.
+ */
 public class GenerateAst {
+  // * Whether to write the sealed interfaces
+  private static boolean sealed = false;
+
   public static void main(String[] args) throws IOException {
-    if (args.length != 1) {
-      System.err.println("Usage: generate_ast <output directory>");
+    if (args.length < 1 || args.length > 2 || (args.length == 2 && !args[1].equals("--sealed"))) {
+      System.err.println("Usage: generate_ast <output directory> [--sealed]");
+      System.exit(64);
     }
     String outputDir = args[0];
+    sealed = args.length == 2;
 
     // * Expression = Assign | Binary | Grouping | Literal | Variable | Unary
     defineAst(outputDir, "Expr", Arrays.asList(
-        "Assign   : Token name, Expr value",
+        "Assign   : Token name, Expr value | int depth = -1, Object cache",
         "Binary        : Expr left, Token operator, Expr right",
-        "Call          : Expr callee, Token paren, List<Expr> arguments",
-        "Get           : Expr object, Token name",
+        "Call          : Expr callee, Token paren, List<Expr> arguments | Object cache",
+        "Get           : Expr object, Token name | Object cache",
         "Grouping      : Expr expression",
         "Literal       : Object value",
         "Logical       : Expr left, Token operator, Expr right",
-        "Set           : Expr object, Token name, Expr value",
-        "This          : Token keyword",
+        "Set           : Expr object, Token name, Expr value | Object cache",
+        "Super         : Token keyword, Token method | int depth = -1",
+        "This          : Token keyword | int depth = -1",
         "Unary         : Token operator, Expr right",
-        "Variable      : Token name"));
+        "Variable      : Token name | int depth = -1, Object cache"), Collections.emptyList());
 
     // * Statement = Expression | Print
     defineAst(outputDir, "Stmt", Arrays.asList(
       "Block   : List<Stmt> statements", 
-        "Class   : Token name, List<Stmt.Function> methods", 
+        "Class   : Token name, Expr.Variable superclass," +
+                 " List<Stmt.Function> methods", 
         "Expression : Expr expression",
         "Function   : Token name, List<Token> params," + 
-                    " List<Stmt> body",
+                    " List<Token> paramTypes, Token returnType," +
+                    " List<Stmt> body | Object cache, long count",
         "If         : Expr condition, Stmt thenBranch," +
                     " Stmt elseBranch",
         "Print      : Expr expression",
         "Return     : Token keyword, Expr value",
-        "Var        : Token name, Expr initializer",
-        "While      : Expr condtion, Stmt body"
-        ));
+        "Var        : Token name, Token type, Expr initializer",
+        "While      : Token keyword, Expr condtion, Stmt body | Object cache, long count",
+        "Yield      : Token keyword, Expr value"
+        // * The debugger's stand-in node lives outside the generated file
+        ), Arrays.asList("Breakpoint"));
         
   }
 
-  private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
+  /**
+   * * Writes one base type and its nodes.
+   * @param outputDir
+   * @param baseName
+   * @param types the node specs
+   * @param external nodes declared in files of their own, only permitted by the sealed interface
+   */
+  private static void defineAst(String outputDir, String baseName, List<String> types, List<String> external) throws IOException {
     String path = outputDir + "/" + baseName + ".java";
     PrintWriter writer = new PrintWriter(path, "UTF-8");
 
@@ -51,6 +80,11 @@ public class GenerateAst {
     writer.println();
     writer.println("import java.util.List;");
     writer.println();
+    if (sealed) {
+      defineSealedAst(writer, baseName, types, external);
+      writer.close();
+      return;
+    }
     writer.println("abstract class " + baseName + " {");
 
     defineVisitor(writer, baseName, types);
@@ -58,7 +92,7 @@ public class GenerateAst {
     // * AST classes
     for (String type : types) {
       String className = type.split(":")[0].trim();
-      String fields = type.split(":")[1].trim();
+      String fields = fieldsOf(type);
       defineType(writer, baseName, className, fields);
       writer.println();
     }
@@ -82,6 +116,93 @@ public class GenerateAst {
     writer.println();
   }
 
+  private static void defineSealedAst(PrintWriter writer, String baseName, List<String> types, List<String> external) {
+    List<String> permits = new ArrayList<>();
+    for (String type : types) {
+      permits.add(baseName + "." + type.split(":")[0].trim());
+    }
+    permits.addAll(external);
+    writer.println("sealed interface " + baseName + " permits " + String.join(", ", permits) + " {");
+
+    // * Kind tags, numbered densely so a switch on them compiles to a jump table
+    int kind = 0;
+    for (String type : types) {
+      writer.println("  int " + kindOf(type.split(":")[0].trim()) + " = " + kind++ + ";");
+    }
+    for (String type : external) {
+      writer.println("  int " + kindOf(type) + " = " + kind++ + ";");
+    }
+    writer.println();
+
+    defineVisitor(writer, baseName, types);
+
+    writer.println("  int kind();");
+    writer.println();
+    writer.println("  <R> R accept(Visitor<R> visitor);");
+    writer.println();
+
+    for (String type : types) {
+      String className = type.split(":")[0].trim();
+      defineSealedType(writer, baseName, className, fieldsOf(type), slotsOf(type));
+      writer.println();
+    }
+
+    writer.println("}");
+  }
+
+  private static void defineSealedType(PrintWriter writer, String baseName, String className, String fieldList, String slotList) {
+    writer.println("  final class " + className + " implements " + baseName + " {");
+
+    writer.println("    " + className + "(" + fieldList + ") {");
+    String[] fields = fieldList.split(", ");
+    for (String field : fields) {
+      String name = field.split(" ")[1];
+      writer.println("      this." + name + " = " + name + ";");
+    }
+    writer.println("    }");
+
+    writer.println();
+    writer.println("    @Override");
+    writer.println("    public int kind() {");
+    writer.println("      return " + kindOf(className) + ";");
+    writer.println("    }");
+
+    writer.println();
+    writer.println("    @Override");
+    writer.println("    public <R> R accept(Visitor<R> visitor) {");
+    writer.println("      return visitor.visit" + className + baseName + "(this);");
+    writer.println("    }");
+
+    writer.println();
+    for (String field : fields) {
+      writer.println("    final " + field + ";");
+    }
+    if (slotList != null) {
+      writer.println("    // * Runtime annotations, written after the node is built");
+      for (String slot : slotList.split(", ")) {
+        writer.println("    " + slot + ";");
+      }
+    }
+
+    writer.println("  }");
+  }
+
+  // * The spec between the colon and the slots
+  private static String fieldsOf(String type) {
+    return type.split(":")[1].split("\\|")[0].trim();
+  }
+
+  // * The slots of a spec, null when it has none
+  private static String slotsOf(String type) {
+    String[] parts = type.split(":")[1].split("\\|");
+    return parts.length > 1 ? parts[1].trim() : null;
+  }
+
+  // * PascalCase to UPPER_SNAKE_CASE
+  private static String kindOf(String className) {
+    return className.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+  }
+
   public static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
     writer.println("  static class " + className + " extends " + baseName + " {");
 
@@ -119,6 +240,7 @@ public class GenerateAst {
  * $PWD/lox
  * 
  * Example
+ * Add --sealed after the directory for the sealed interfaces.
  * Run Following command to generate AST
  * /usr/bin/env /opt/homebrew/Cellar/openjdk@11/11.0.20/libexec/openjdk.jdk/Contents/Home/bin/java -cp /Users/swapnil67/Library/Application\ Support/Code/User/workspaceStorage/56eed772553f1fb6d0679af17f7144e1/redhat.java/jdt_ws/complier_c86cd7a4/bin lox.tool.GenerateAst  /Users/swapnil67/Developer/complier/lox
  */
\ No newline at end of file